@@ -0,0 +1,101 @@
+package org.pancakelab.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention benchmark for a few hot orders shared by many threads, with read
+ * heavy and write heavy mixes. Not a unit test, run it with
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile
+ * java -cp target/classes:target/test-classes org.pancakelab.service.PancakeServiceContentionBenchmark
+ * </pre>
+ *
+ * Arguments: threads, hot orders, seconds per mix
+ */
+public class PancakeServiceContentionBenchmark {
+
+	private static final String DESCRIPTION = "Delicious pancake with dark chocolate!";
+
+	public static void main(String[] args) throws InterruptedException {
+		var threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		var orders = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		var seconds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+		System.out.printf("threads=%d orders=%d seconds=%d%n", threads, orders, seconds);
+		for (var readPercent : new int[] { 95, 50, 5 }) {
+			run(threads, orders, seconds, readPercent);
+		}
+	}
+
+	private static void run(int threads, int orders, int seconds, int readPercent) throws InterruptedException {
+		var service = new PancakeService(new OrderLog());
+		var ids = new ArrayList<UUID>();
+		for (int i = 0; i < orders; i++) {
+			var id = service.createOrder(1, i).getId();
+			service.addDarkChocolatePancake(id, 8);
+			ids.add(id);
+		}
+
+		var reads = new LongAdder();
+		var writes = new LongAdder();
+		var start = new CountDownLatch(1);
+		var deadline = new long[1];
+		var workers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			var worker = new Thread(() -> {
+				await(start);
+				work(service, ids, readPercent, deadline[0], reads, writes);
+			});
+			worker.start();
+			workers.add(worker);
+		}
+		deadline[0] = System.nanoTime() + seconds * 1_000_000_000L;
+		start.countDown();
+		for (var worker : workers) {
+			worker.join();
+		}
+
+		System.out.printf("reads=%3d%%  reads/s=%,14d  writes/s=%,14d%n", readPercent, reads.sum() / seconds, writes.sum() / seconds);
+	}
+
+	private static void work(PancakeService service, List<UUID> ids, int readPercent, long deadline, LongAdder reads, LongAdder writes) {
+		var random = ThreadLocalRandom.current();
+		var blackhole = 0L;
+		var readCount = 0L;
+		var writeCount = 0L;
+		while (((readCount + writeCount) & 0xFF) != 0 || System.nanoTime() < deadline) {
+			var id = ids.get(random.nextInt(ids.size()));
+			if (random.nextInt(100) < readPercent) {
+				blackhole += service.viewOrder(id).size();
+				readCount++;
+			} else {
+				if (random.nextBoolean()) {
+					service.addDarkChocolatePancake(id, 1);
+				} else {
+					service.removePancakes(DESCRIPTION, id, 1);
+				}
+				writeCount++;
+			}
+		}
+		reads.add(readCount);
+		writes.add(writeCount);
+		if (blackhole == Long.MIN_VALUE) {
+			System.out.println(blackhole);
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
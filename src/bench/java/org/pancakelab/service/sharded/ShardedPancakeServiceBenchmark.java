@@ -0,0 +1,123 @@
+package org.pancakelab.service.sharded;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.pancakelab.service.OrderLog;
+import org.pancakelab.service.OrderService;
+import org.pancakelab.service.PancakeService;
+
+/**
+ * Throughput of the shared-nothing service against the shared one, with many
+ * orders spread over every core. Not a unit test, run it with
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile
+ * java -cp target/classes:target/test-classes org.pancakelab.service.sharded.ShardedPancakeServiceBenchmark
+ * </pre>
+ *
+ * Arguments: caller threads, orders, seconds per run, workers
+ */
+public class ShardedPancakeServiceBenchmark {
+
+	private static final String DESCRIPTION = "Delicious pancake with dark chocolate!";
+
+	public static void main(String[] args) throws InterruptedException {
+		var cores = Runtime.getRuntime().availableProcessors();
+		var threads = args.length > 0 ? Integer.parseInt(args[0]) : cores;
+		var orders = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+		var seconds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		var workers = args.length > 3 ? Integer.parseInt(args[3]) : cores;
+
+		System.out.printf("cores=%d threads=%d orders=%d seconds=%d workers=%d%n", cores, threads, orders, seconds, workers);
+		for (var readPercent : new int[] { 90, 50 }) {
+			run("shared", new PancakeService(new OrderLog()), threads, orders, seconds, readPercent);
+			try (var sharded = new ShardedPancakeService(workers, OrderLog::new)) {
+				run("sharded", sharded, threads, orders, seconds, readPercent);
+			}
+		}
+	}
+
+	private static void run(String name, OrderService service, int threads, int orders, int seconds, int readPercent) throws InterruptedException {
+		var ids = new ArrayList<UUID>();
+		for (int i = 0; i < orders; i++) {
+			var id = service.createOrder(i % 50, i).getId();
+			service.addDarkChocolatePancake(id, 2);
+			ids.add(id);
+		}
+
+		var calls = new LongAdder();
+		var start = new CountDownLatch(1);
+		var deadline = new long[1];
+		var callers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			var own = new ArrayList<UUID>();
+			for (int i = t; i < ids.size(); i += threads) {
+				own.add(ids.get(i));
+			}
+			var caller = new Thread(() -> {
+				await(start);
+				work(service, own, readPercent, deadline[0], calls);
+			});
+			caller.start();
+			callers.add(caller);
+		}
+		deadline[0] = System.nanoTime() + seconds * 1_000_000_000L;
+		start.countDown();
+		for (var caller : callers) {
+			caller.join();
+		}
+
+		System.out.printf("%-8s reads=%3d%%  calls/s=%,14d%n", name, readPercent, calls.sum() / seconds);
+	}
+
+	/**
+	 * Reads and writes random orders of the caller, replacing an order by a new
+	 * one after delivering it so that orders are created and removed too
+	 */
+	private static void work(OrderService service, List<UUID> ids, int readPercent, long deadline, LongAdder calls) {
+		var random = ThreadLocalRandom.current();
+		var blackhole = 0L;
+		var count = 0L;
+		while ((count & 0xFF) != 0 || System.nanoTime() < deadline) {
+			var slot = random.nextInt(ids.size());
+			var id = ids.get(slot);
+			var dice = random.nextInt(100);
+			if (dice < readPercent) {
+				blackhole += service.viewOrder(id).size();
+				count++;
+			} else if (dice < 98) {
+				if (random.nextBoolean()) {
+					service.addDarkChocolatePancake(id, 1);
+				} else {
+					service.removePancakes(DESCRIPTION, id, 1);
+				}
+				count++;
+			} else {
+				var replacement = service.createOrder(1, slot).getId();
+				service.addDarkChocolatePancake(replacement, 2);
+				service.prepareOrder(id);
+				service.deliverOrder(id);
+				ids.set(slot, replacement);
+				count += 4;
+			}
+		}
+		calls.add(count);
+		if (blackhole == Long.MIN_VALUE) {
+			System.out.println(blackhole);
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -8,6 +8,7 @@ public class Order {
 	private final UUID id;
 	private final int building;
 	private final int room;
+	private final long createdAt;
 
 	public Order(int building, int room) {
 		this(UUID.randomUUID(), building, room);
@@ -17,6 +18,7 @@ public class Order {
 		this.id = id;
 		this.building = building;
 		this.room = room;
+		this.createdAt = System.currentTimeMillis();
 	}
 
 	public UUID getId() {
@@ -31,6 +33,15 @@ public class Order {
 		return room;
 	}
 
+	/**
+	 * Returns the creation time in milliseconds since the epoch
+	 *
+	 * @return
+	 */
+	public long getCreatedAt() {
+		return createdAt;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o)
@@ -18,4 +18,19 @@ public enum PancakeIngredient {
 		return title;
 	}
 
+	/**
+	 * Returns the ingredient with the title, or null if none
+	 *
+	 * @param title
+	 * @return
+	 */
+	public static PancakeIngredient fromTitle(String title) {
+		for (var ingredient : values()) {
+			if (ingredient.title.equals(title)) {
+				return ingredient;
+			}
+		}
+		return null;
+	}
+
 }
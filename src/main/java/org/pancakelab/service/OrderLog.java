@@ -1,38 +1,96 @@
 package org.pancakelab.service;
 
 import java.util.List;
+import java.util.UUID;
 
 import org.pancakelab.model.Order;
 import org.pancakelab.model.pancakes.PancakeRecipe;
+import org.pancakelab.service.jfr.OrderLogWriteEvent;
 
 public class OrderLog {
 
-	private final StringBuilder log = new StringBuilder();
+	private final OrderLogSink sink;
 
-	public synchronized void logAddPancake(Order order, String description, List<PancakeRecipe> pancakes) {
-		log.append("Added pancake with description '%s' ".formatted(description)) //
-				.append("to order %s containing %d pancakes, ".formatted(order.getId(), pancakes.size())) //
-				.append("for building %d, room %d.".formatted(order.getBuilding(), order.getRoom())) //
-				.append("\n");
+	public OrderLog() {
+		this(new MemorySink());
 	}
 
-	public synchronized void logRemovePancakes(Order order, String description, int count, List<PancakeRecipe> pancakes) {
-		log.append("Removed %d pancake(s) with description '%s' ".formatted(count, description)) //
-				.append("from order %s now containing %d pancakes, ".formatted(order.getId(), pancakes.size())) //
-				.append("for building %d, room %d.".formatted(order.getBuilding(), order.getRoom())) //
-				.append("\n");
+	public OrderLog(OrderLogSink sink) {
+		this.sink = sink;
 	}
 
-	public synchronized void logCancelOrder(Order order, List<PancakeRecipe> pancakes) {
-		log.append("Cancelled order %s with %d pancakes ".formatted(order.getId(), pancakes.size())) //
-				.append("for building %d, room %d.".formatted(order.getBuilding(), order.getRoom())) //
-				.append("\n");
+	public void logAddPancake(Order order, String description, List<PancakeRecipe> pancakes) {
+		write("addPancake", order, pancakes.size(), "Added pancake with description '%s' ".formatted(description) //
+				+ "to order %s containing %d pancakes, ".formatted(order.getId(), pancakes.size()) //
+				+ "for building %d, room %d.".formatted(order.getBuilding(), order.getRoom()));
 	}
 
-	public synchronized void logDeliverOrder(Order order, List<PancakeRecipe> pancakes) {
-		log.append("Order %s with %d pancakes ".formatted(order.getId(), pancakes.size())) //
-				.append("for building %d, room %d out for delivery.".formatted(order.getBuilding(), order.getRoom())) //
-				.append("\n");
+	public void logRemovePancakes(Order order, String description, int count, List<PancakeRecipe> pancakes) {
+		write("removePancakes", order, pancakes.size(), "Removed %d pancake(s) with description '%s' ".formatted(count, description) //
+				+ "from order %s now containing %d pancakes, ".formatted(order.getId(), pancakes.size()) //
+				+ "for building %d, room %d.".formatted(order.getBuilding(), order.getRoom()));
+	}
+
+	public void logCancelOrder(Order order, List<PancakeRecipe> pancakes) {
+		write("cancelOrder", order, pancakes.size(), "Cancelled order %s with %d pancakes ".formatted(order.getId(), pancakes.size()) //
+				+ "for building %d, room %d.".formatted(order.getBuilding(), order.getRoom()));
+	}
+
+	public void logDeliverOrder(Order order, List<PancakeRecipe> pancakes) {
+		write("deliverOrder", order, pancakes.size(), "Order %s with %d pancakes ".formatted(order.getId(), pancakes.size()) //
+				+ "for building %d, room %d out for delivery.".formatted(order.getBuilding(), order.getRoom()));
+	}
+
+	/**
+	 * Writes a line formatted outside the lock
+	 *
+	 * @param operation
+	 * @param order
+	 * @param pancakeCount
+	 * @param line
+	 */
+	private void write(String operation, Order order, int pancakeCount, String line) {
+		var event = OrderLogWriteEvent.begin(operation, order.getId(), order.getBuilding(), pancakeCount);
+		var written = false;
+		try {
+			synchronized (this) {
+				event.locked();
+				sink.write(order.getId(), line);
+			}
+			written = true;
+		} finally {
+			event.finish(written);
+		}
+	}
+
+	/**
+	 * Returns the log lines of the order, oldest first
+	 *
+	 * @param orderId
+	 * @return
+	 */
+	public List<String> history(UUID orderId) {
+		return sink.history(orderId);
+	}
+
+	/**
+	 * In-memory sink, kept as the default for tests and small runs
+	 */
+	private static class MemorySink implements OrderLogSink {
+
+		private final StringBuilder log = new StringBuilder();
+
+		@Override
+		public synchronized void write(UUID orderId, String line) {
+			log.append(line).append("\n");
+		}
+
+		@Override
+		public synchronized List<String> history(UUID orderId) {
+			var id = orderId.toString();
+			return log.toString().lines().filter(line -> line.contains(id)).toList();
+		}
+
 	}
 
 }
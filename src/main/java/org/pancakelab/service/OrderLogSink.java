@@ -0,0 +1,27 @@
+package org.pancakelab.service;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Destination of the order log lines
+ */
+public interface OrderLogSink {
+
+	/**
+	 * Writes a line about the order
+	 *
+	 * @param orderId
+	 * @param line
+	 */
+	void write(UUID orderId, String line);
+
+	/**
+	 * Returns the lines written about the order, oldest first
+	 *
+	 * @param orderId
+	 * @return
+	 */
+	List<String> history(UUID orderId);
+
+}
@@ -0,0 +1,133 @@
+package org.pancakelab.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import org.pancakelab.model.Order;
+import org.pancakelab.model.pancakes.CustomPancake;
+import org.pancakelab.model.pancakes.PancakeRecipe;
+
+/**
+ * Rules of the order operations, shared by the services that keep their orders
+ * in different structures. The caller owns the state of the order and its
+ * locking, the rules only check and change the values they are given
+ */
+public final class OrderRules {
+
+	private OrderRules() {
+	}
+
+	/**
+	 * Returns the error of an unknown order
+	 *
+	 * @param orderId
+	 * @return
+	 */
+	public static IllegalStateException notFound(UUID orderId) {
+		return new IllegalStateException(String.format("order %s not found", orderId));
+	}
+
+	/**
+	 * Starts a custom pancake, failing if one is already in progress
+	 *
+	 * @param inProgress
+	 * @return
+	 */
+	public static CustomPancake startCustom(CustomPancake inProgress) {
+		if (inProgress != null) {
+			throw new IllegalStateException("pancake in progress");
+		}
+		return new CustomPancake();
+	}
+
+	/**
+	 * Returns the custom pancake in progress, failing if there is none
+	 *
+	 * @param inProgress
+	 * @return
+	 */
+	public static CustomPancake inProgress(CustomPancake inProgress) {
+		if (inProgress == null) {
+			throw new IllegalStateException("No pancake in progress");
+		}
+		return inProgress;
+	}
+
+	/**
+	 * Finishes the custom pancake in progress and adds it to the order
+	 *
+	 * @param log
+	 * @param order
+	 * @param recipes
+	 * @param inProgress
+	 * @return the finished pancake
+	 */
+	public static CustomPancake finishCustom(OrderLog log, Order order, List<PancakeRecipe> recipes, CustomPancake inProgress) {
+		var custom = inProgress(inProgress);
+		custom.finish();
+		addPancake(log, order, recipes, custom);
+		return custom;
+	}
+
+	/**
+	 * Checks that no custom pancake is left unfinished before preparing the
+	 * order
+	 *
+	 * @param inProgress
+	 */
+	public static void checkPreparable(CustomPancake inProgress) {
+		if (inProgress != null) {
+			throw new IllegalStateException("custom recipe was not finished");
+		}
+	}
+
+	/**
+	 * Adds pancakes of the same recipe to the order
+	 *
+	 * @param log
+	 * @param order
+	 * @param recipes
+	 * @param count
+	 * @param recipe
+	 * @return the added pancakes
+	 */
+	public static List<PancakeRecipe> addPancakes(OrderLog log, Order order, List<PancakeRecipe> recipes, int count, Supplier<PancakeRecipe> recipe) {
+		var added = new ArrayList<PancakeRecipe>();
+		for (int i = 0; i < count; ++i) {
+			var pancake = recipe.get();
+			addPancake(log, order, recipes, pancake);
+			added.add(pancake);
+		}
+		return added;
+	}
+
+	/**
+	 * Removes up to count pancakes with the description from the order
+	 *
+	 * @param log
+	 * @param order
+	 * @param recipes
+	 * @param description
+	 * @param count
+	 * @return the removed pancakes
+	 */
+	public static List<PancakeRecipe> removePancakes(OrderLog log, Order order, List<PancakeRecipe> recipes, String description, int count) {
+		var removed = new ArrayList<PancakeRecipe>();
+		for (int i = 0; removed.size() < count && i < recipes.size(); i++) {
+			if (recipes.get(i).description().equals(description)) {
+				removed.add(recipes.remove(i--));
+			}
+		}
+		log.logRemovePancakes(order, description, removed.size(), recipes);
+		return removed;
+	}
+
+	private static void addPancake(OrderLog log, Order order, List<PancakeRecipe> recipes, PancakeRecipe pancake) {
+		pancake.setOrderId(order.getId());
+		recipes.add(pancake);
+		log.logAddPancake(order, pancake.description(), recipes);
+	}
+
+}
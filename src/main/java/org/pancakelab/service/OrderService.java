@@ -0,0 +1,133 @@
+package org.pancakelab.service;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.pancakelab.model.OrderDTO;
+import org.pancakelab.model.pancakes.PancakeIngredient;
+import org.pancakelab.service.PancakeService.DeliverOrder;
+import org.pancakelab.service.report.OrderReport;
+
+/**
+ * Operations on pancake orders, implemented by {@link PancakeService} and by
+ * the execution modes that keep the orders in their own structures
+ */
+public interface OrderService {
+
+	/**
+	 * Registers a listener of the order changes
+	 *
+	 * @param listener
+	 */
+	void addListener(PancakeServiceListener listener);
+
+	/**
+	 * Creates an order
+	 *
+	 * @param building
+	 * @param room
+	 * @return
+	 */
+	OrderDTO createOrder(int building, int room);
+
+	/**
+	 * Starts a custom pancake in the order
+	 *
+	 * @param orderId
+	 */
+	void createCustom(UUID orderId);
+
+	/**
+	 * Adds an ingredient to the custom pancake in progress
+	 *
+	 * @param orderId
+	 * @param ingredient
+	 */
+	void addIngredient(UUID orderId, PancakeIngredient ingredient);
+
+	/**
+	 * Adds the custom pancake in progress to the order
+	 *
+	 * @param orderId
+	 */
+	void finishCustom(UUID orderId);
+
+	void addDarkChocolatePancake(UUID orderId, int count);
+
+	void addDarkChocolateWhippedCreamPancake(UUID orderId, int count);
+
+	void addDarkChocolateWhippedCreamHazelnutsPancake(UUID orderId, int count);
+
+	void addMilkChocolatePancake(UUID orderId, int count);
+
+	void addMilkChocolateHazelnutsPancake(UUID orderId, int count);
+
+	/**
+	 * Returns the order description
+	 *
+	 * @param orderId
+	 * @return
+	 */
+	List<String> viewOrder(UUID orderId);
+
+	/**
+	 * Removes up to count pancakes with the description from the order
+	 *
+	 * @param description
+	 * @param orderId
+	 * @param count
+	 */
+	void removePancakes(String description, UUID orderId, int count);
+
+	/**
+	 * Cancels the order
+	 *
+	 * @param orderId
+	 */
+	void cancelOrder(UUID orderId);
+
+	/**
+	 * Marks the order as completed
+	 *
+	 * @param orderId
+	 */
+	void completeOrder(UUID orderId);
+
+	/**
+	 * Returns the completed orders
+	 *
+	 * @return
+	 */
+	Set<UUID> listCompletedOrders();
+
+	/**
+	 * Marks the order as being prepared
+	 *
+	 * @param orderId
+	 */
+	void prepareOrder(UUID orderId);
+
+	/**
+	 * Returns the orders being prepared
+	 *
+	 * @return
+	 */
+	Set<UUID> listPreparedOrders();
+
+	/**
+	 * Delivers a prepared order
+	 *
+	 * @param orderId
+	 * @return the delivered order, or null if it is not prepared
+	 */
+	DeliverOrder deliverOrder(UUID orderId);
+
+	/**
+	 * Aggregates the open orders
+	 *
+	 * @return
+	 */
+	OrderReport report();
+
+}
@@ -7,8 +7,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.Spliterator;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
 
 import org.pancakelab.model.Order;
 import org.pancakelab.model.OrderDTO;
@@ -20,21 +25,36 @@ import org.pancakelab.model.pancakes.MilkChocolateHazelnutsPancake;
 import org.pancakelab.model.pancakes.MilkChocolatePancake;
 import org.pancakelab.model.pancakes.PancakeIngredient;
 import org.pancakelab.model.pancakes.PancakeRecipe;
+import org.pancakelab.service.jfr.PancakeOperationEvent;
+import org.pancakelab.service.report.OrderReport;
+import org.pancakelab.service.report.OrderStatus;
 
 /**
  * Pancake order service class
  */
-public class PancakeService {
+public class PancakeService implements OrderService {
+
+	private static final int REPORT_MIN_SPLIT = 1_024;
 
 	private final OrderLog log;
 	private final Set<UUID> completedOrders = new HashSet<>();
 	private final Set<UUID> preparedOrders = new HashSet<>();
 	private final Map<UUID, PancakeServiceEntry> entities = new ConcurrentHashMap<>();
+	private final List<PancakeServiceListener> listeners = new CopyOnWriteArrayList<>();
 
 	public PancakeService(OrderLog log) {
 		this.log = log;
 	}
 
+	/**
+	 * Registers a listener of the order changes
+	 *
+	 * @param listener
+	 */
+	public void addListener(PancakeServiceListener listener) {
+		listeners.add(listener);
+	}
+
 	/**
 	 * Creates an order
 	 *
@@ -43,9 +63,30 @@ public class PancakeService {
 	 * @return
 	 */
 	public OrderDTO createOrder(int building, int room) {
-		var data = new Order(building, room);
-		entities.put(data.getId(), new PancakeServiceEntry(data.getId(), data));
-		return OrderDTO.fromData(data);
+		return createOrder(UUID.randomUUID(), building, room);
+	}
+
+	/**
+	 * Creates an order with a known identifier, used when replaying orders
+	 * created elsewhere
+	 *
+	 * @param orderId
+	 * @param building
+	 * @param room
+	 * @return
+	 */
+	protected OrderDTO createOrder(UUID orderId, int building, int room) {
+		var event = PancakeOperationEvent.begin("createOrder", orderId);
+		try {
+			var data = new Order(orderId, building, room);
+			entities.put(data.getId(), new PancakeServiceEntry(data.getId(), data));
+			listeners.forEach(listener -> listener.orderCreated(data));
+			event.forBuilding(building);
+			event.succeeded(0);
+			return OrderDTO.fromData(data);
+		} finally {
+			event.finish();
+		}
 	}
 
 	/**
@@ -54,12 +95,18 @@ public class PancakeService {
 	 * @param orderId
 	 */
 	public void createCustom(UUID orderId) {
-		var entry = entryOrThrow(orderId);
-		synchronized (entry) {
-			if (entry.custom != null) {
-				throw new IllegalStateException("pancake in progress");
+		var event = PancakeOperationEvent.begin("createCustom", orderId);
+		try {
+			var entry = entryOrThrow(orderId);
+			event.waitLock();
+			synchronized (entry) {
+				event.locked(entry.order.getBuilding());
+				checkOpen(entry);
+				entry.custom = OrderRules.startCustom(entry.custom);
+				event.succeeded(entry.version.recipes().size());
 			}
-			entry.custom = new CustomPancake();
+		} finally {
+			event.finish();
 		}
 	}
 
@@ -70,12 +117,18 @@ public class PancakeService {
 	 * @param ingredient
 	 */
 	public void addIngredient(UUID orderId, PancakeIngredient ingredient) {
-		var entry = entryOrThrow(orderId);
-		synchronized (entry) {
-			if (entry.custom == null) {
-				throw new IllegalStateException("No pancake in progress");
+		var event = PancakeOperationEvent.begin("addIngredient", orderId);
+		try {
+			var entry = entryOrThrow(orderId);
+			event.waitLock();
+			synchronized (entry) {
+				event.locked(entry.order.getBuilding());
+				checkOpen(entry);
+				OrderRules.inProgress(entry.custom).addIngredient(ingredient);
+				event.succeeded(entry.version.recipes().size());
 			}
-			entry.custom.addIngredient(ingredient);
+		} finally {
+			event.finish();
 		}
 	}
 
@@ -85,75 +138,66 @@ public class PancakeService {
 	 * @param orderId
 	 */
 	public void finishCustom(UUID orderId) {
-		var entry = entryOrThrow(orderId);
-		synchronized (entry) {
-			if (entry.custom == null) {
-				throw new IllegalStateException("No pancake in progress");
+		var event = PancakeOperationEvent.begin("finishCustom", orderId);
+		try {
+			var entry = entryOrThrow(orderId);
+			event.waitLock();
+			synchronized (entry) {
+				event.locked(entry.order.getBuilding());
+				checkOpen(entry);
+				var recipes = new ArrayList<>(entry.version.recipes());
+				var custom = OrderRules.finishCustom(log, entry.order, recipes, entry.custom);
+				entry.publish(recipes);
+				entry.custom = null;
+				listeners.forEach(listener -> listener.pancakesAdded(entry.order, List.of(custom)));
+				event.succeeded(recipes.size());
 			}
-			entry.custom.finish();
-			addPancake(entry.custom, entry);
-			entry.custom = null;
+		} finally {
+			event.finish();
 		}
 	}
 
 	public void addDarkChocolatePancake(UUID orderId, int count) {
-		var entry = entryOrThrow(orderId);
-		synchronized (entry) {
-			for (int i = 0; i < count; ++i) {
-				addPancake(new DarkChocolatePancake(), entry);
-			}
-		}
+		addPancakes("addDarkChocolatePancake", orderId, count, DarkChocolatePancake::new);
 	}
 
 	public void addDarkChocolateWhippedCreamPancake(UUID orderId, int count) {
-		var entry = entryOrThrow(orderId);
-		synchronized (entry) {
-			for (int i = 0; i < count; ++i) {
-				addPancake(new DarkChocolateWhippedCreamPancake(), entry);
-			}
-		}
+		addPancakes("addDarkChocolateWhippedCreamPancake", orderId, count, DarkChocolateWhippedCreamPancake::new);
 	}
 
 	public void addDarkChocolateWhippedCreamHazelnutsPancake(UUID orderId, int count) {
-		var entry = entryOrThrow(orderId);
-		synchronized (entry) {
-			for (int i = 0; i < count; ++i) {
-				addPancake(new DarkChocolateWhippedCreamHazelnutsPancake(), entry);
-			}
-		}
+		addPancakes("addDarkChocolateWhippedCreamHazelnutsPancake", orderId, count, DarkChocolateWhippedCreamHazelnutsPancake::new);
 	}
 
 	public void addMilkChocolatePancake(UUID orderId, int count) {
-		var entry = entryOrThrow(orderId);
-		synchronized (entry) {
-			for (int i = 0; i < count; ++i) {
-				addPancake(new MilkChocolatePancake(), entry);
-			}
-		}
+		addPancakes("addMilkChocolatePancake", orderId, count, MilkChocolatePancake::new);
 	}
 
 	public void addMilkChocolateHazelnutsPancake(UUID orderId, int count) {
-		var entry = entryOrThrow(orderId);
-		synchronized (entry) {
-			for (int i = 0; i < count; ++i) {
-				addPancake(new MilkChocolateHazelnutsPancake(), entry);
-			}
-		}
+		addPancakes("addMilkChocolateHazelnutsPancake", orderId, count, MilkChocolateHazelnutsPancake::new);
 	}
 
 	/**
-	 * Returns the order description
+	 * Returns the order description, read from the last published version of the
+	 * order without locking
 	 *
 	 * @param orderId
 	 * @return
 	 */
 	public List<String> viewOrder(UUID orderId) {
-		var entry = entryOrNull(orderId);
-		if (entry == null) {
-			return Collections.emptyList();
-		}
-		synchronized (entry) {
-			return entry.recipes.stream().map(PancakeRecipe::description).toList();
+		var event = PancakeOperationEvent.begin("viewOrder", orderId);
+		try {
+			var entry = entryOrNull(orderId);
+			if (entry == null) {
+				event.outcome("not found", 0);
+				return Collections.emptyList();
+			}
+			var descriptions = entry.version.descriptions();
+			event.forBuilding(entry.order.getBuilding());
+			event.succeeded(descriptions.size());
+			return descriptions;
+		} finally {
+			event.finish();
 		}
 	}
 
@@ -165,16 +209,23 @@ public class PancakeService {
 	 * @param count
 	 */
 	public void removePancakes(String description, UUID orderId, int count) {
-		var entry = entryOrThrow(orderId);
-		synchronized (entry) {
-			var removed = 0;
-			for (int i = 0; removed < count && i < entry.recipes.size(); i++) {
-				if (entry.recipes.get(i).description().equals(description)) {
-					entry.recipes.remove(i--);
-					removed++;
+		var event = PancakeOperationEvent.begin("removePancakes", orderId);
+		try {
+			var entry = entryOrThrow(orderId);
+			event.waitLock();
+			synchronized (entry) {
+				event.locked(entry.order.getBuilding());
+				checkOpen(entry);
+				var recipes = new ArrayList<>(entry.version.recipes());
+				var removed = OrderRules.removePancakes(log, entry.order, recipes, description, count);
+				entry.publish(recipes);
+				if (!removed.isEmpty()) {
+					listeners.forEach(listener -> listener.pancakesRemoved(entry.order, removed));
 				}
+				event.succeeded(recipes.size());
 			}
-			log.logRemovePancakes(entry.order, description, removed, entry.recipes);
+		} finally {
+			event.finish();
 		}
 	}
 
@@ -184,15 +235,27 @@ public class PancakeService {
 	 * @param orderId
 	 */
 	public void cancelOrder(UUID orderId) {
-		var entry = entryOrThrow(orderId);
-		synchronized (entry) {
-			entities.remove(orderId);
-			synchronized (completedOrders) {
-				completedOrders.remove(orderId);
-				preparedOrders.remove(orderId);
-			}
+		var event = PancakeOperationEvent.begin("cancelOrder", orderId);
+		try {
+			var entry = entryOrThrow(orderId);
+			event.waitLock();
+			synchronized (entry) {
+				event.locked(entry.order.getBuilding());
+				checkOpen(entry);
+				entry.closed = true;
+				entities.remove(orderId);
+				synchronized (completedOrders) {
+					completedOrders.remove(orderId);
+					preparedOrders.remove(orderId);
+				}
 
-			log.logCancelOrder(entry.order, entry.recipes);
+				var recipes = entry.version.recipes();
+				log.logCancelOrder(entry.order, recipes);
+				listeners.forEach(listener -> listener.orderCancelled(entry.order, recipes));
+				event.succeeded(recipes.size());
+			}
+		} finally {
+			event.finish();
 		}
 	}
 
@@ -202,8 +265,21 @@ public class PancakeService {
 	 * @param orderId
 	 */
 	public void completeOrder(UUID orderId) {
-		synchronized (completedOrders) {
-			completedOrders.add(orderId);
+		var event = PancakeOperationEvent.begin("completeOrder", orderId);
+		try {
+			event.waitLock();
+			var entry = entryOrNull(orderId);
+			synchronized (completedOrders) {
+				event.locked();
+				completedOrders.add(orderId);
+				if (entry != null && entry.status == OrderStatus.OPEN) {
+					entry.status = OrderStatus.COMPLETED;
+				}
+			}
+			listeners.forEach(listener -> listener.orderCompleted(orderId));
+			event.succeeded(0);
+		} finally {
+			event.finish();
 		}
 	}
 
@@ -213,8 +289,16 @@ public class PancakeService {
 	 * @return
 	 */
 	public Set<UUID> listCompletedOrders() {
-		synchronized (completedOrders) {
-			return new HashSet<>(completedOrders);
+		var event = PancakeOperationEvent.begin("listCompletedOrders", null);
+		try {
+			event.waitLock();
+			synchronized (completedOrders) {
+				event.locked();
+				event.succeeded(0);
+				return new HashSet<>(completedOrders);
+			}
+		} finally {
+			event.finish();
 		}
 	}
 
@@ -224,15 +308,24 @@ public class PancakeService {
 	 * @param orderId
 	 */
 	public void prepareOrder(UUID orderId) {
-		var entry = entryOrThrow(orderId);
-		synchronized (entry) {
-			if (entry.custom != null) {
-				throw new IllegalStateException("custom recipe was not finished");
-			}
-			synchronized (completedOrders) {
-				completedOrders.remove(orderId);
-				preparedOrders.add(orderId);
+		var event = PancakeOperationEvent.begin("prepareOrder", orderId);
+		try {
+			var entry = entryOrThrow(orderId);
+			event.waitLock();
+			synchronized (entry) {
+				event.locked(entry.order.getBuilding());
+				checkOpen(entry);
+				OrderRules.checkPreparable(entry.custom);
+				synchronized (completedOrders) {
+					completedOrders.remove(orderId);
+					preparedOrders.add(orderId);
+					entry.status = OrderStatus.PREPARED;
+				}
+				listeners.forEach(listener -> listener.orderPrepared(entry.order));
+				event.succeeded(entry.version.recipes().size());
 			}
+		} finally {
+			event.finish();
 		}
 	}
 
@@ -242,8 +335,16 @@ public class PancakeService {
 	 * @return
 	 */
 	public Set<UUID> listPreparedOrders() {
-		synchronized (completedOrders) {
-			return new HashSet<>(preparedOrders);
+		var event = PancakeOperationEvent.begin("listPreparedOrders", null);
+		try {
+			event.waitLock();
+			synchronized (completedOrders) {
+				event.locked();
+				event.succeeded(0);
+				return new HashSet<>(preparedOrders);
+			}
+		} finally {
+			event.finish();
 		}
 	}
 
@@ -254,24 +355,82 @@ public class PancakeService {
 	 * @return
 	 */
 	public DeliverOrder deliverOrder(UUID orderId) {
-		var entry = entryOrThrow(orderId);
-		synchronized (entry) {
-			synchronized (completedOrders) {
-				if (!preparedOrders.contains(orderId)) {
-					return null;
+		var event = PancakeOperationEvent.begin("deliverOrder", orderId);
+		try {
+			var entry = entryOrThrow(orderId);
+			event.waitLock();
+			synchronized (entry) {
+				event.locked(entry.order.getBuilding());
+				checkOpen(entry);
+				synchronized (completedOrders) {
+					if (!preparedOrders.contains(orderId)) {
+						event.outcome("not prepared", entry.version.recipes().size());
+						return null;
+					}
 				}
-			}
 
-			var pancakesToDeliver = viewOrder(orderId);
-			log.logDeliverOrder(entry.order, entry.recipes);
+				entry.closed = true;
+				entities.remove(orderId);
+				synchronized (completedOrders) {
+					preparedOrders.remove(orderId);
+				}
 
-			entities.remove(orderId);
-			synchronized (completedOrders) {
-				preparedOrders.remove(orderId);
+				var version = entry.version;
+				log.logDeliverOrder(entry.order, version.recipes());
+				listeners.forEach(listener -> listener.orderDelivered(entry.order, version.recipes()));
+
+				event.succeeded(version.recipes().size());
+				return new DeliverOrder(OrderDTO.fromData(entry.order), version.descriptions());
 			}
+		} finally {
+			event.finish();
+		}
+	}
 
-			return new DeliverOrder(OrderDTO.fromData(entry.order), pancakesToDeliver);
+	/**
+	 * Aggregates the open orders on the common pool
+	 *
+	 * @return
+	 */
+	public OrderReport report() {
+		return report(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Aggregates the open orders in parallel. The orders are split into tasks by
+	 * their place in the map, and each order is read from its published version
+	 * and status without taking any lock, so writers are never blocked
+	 *
+	 * @param pool
+	 * @return
+	 */
+	public OrderReport report(ForkJoinPool pool) {
+		var threshold = Math.max(REPORT_MIN_SPLIT, entities.size() / (pool.getParallelism() * 8L));
+		return pool.invoke(new ReportTask(entities.values().spliterator(), threshold)).build();
+	}
+
+	/**
+	 * Returns the building of the order without copying it
+	 *
+	 * @param orderId
+	 * @param notFound returned when the order is not found
+	 * @return
+	 */
+	protected int buildingOf(UUID orderId, int notFound) {
+		var entry = entryOrNull(orderId);
+		return entry == null ? notFound : entry.order.getBuilding();
+	}
+
+	/**
+	 * Discards every order and status, used before restoring a snapshot
+	 */
+	protected void reset() {
+		entities.clear();
+		synchronized (completedOrders) {
+			completedOrders.clear();
+			preparedOrders.clear();
 		}
+		listeners.forEach(PancakeServiceListener::ordersReset);
 	}
 
 	/**
@@ -281,7 +440,18 @@ public class PancakeService {
 	 * @return
 	 */
 	private PancakeServiceEntry entryOrThrow(UUID orderId) {
-		return Optional.ofNullable(entryOrNull(orderId)).orElseThrow(() -> new IllegalStateException(String.format("order %s not found", orderId)));
+		return Optional.ofNullable(entryOrNull(orderId)).orElseThrow(() -> OrderRules.notFound(orderId));
+	}
+
+	/**
+	 * Throws the not found error for an entry removed while waiting for its lock
+	 *
+	 * @param entry
+	 */
+	private void checkOpen(PancakeServiceEntry entry) {
+		if (entry.closed) {
+			throw OrderRules.notFound(entry.id);
+		}
 	}
 
 	/**
@@ -295,15 +465,32 @@ public class PancakeService {
 	}
 
 	/**
-	 * Adds an item
+	 * Adds items of the same recipe, publishing a single new version of the order
 	 *
-	 * @param pancake
-	 * @param entry
+	 * @param operation
+	 * @param orderId
+	 * @param count
+	 * @param recipe
 	 */
-	private void addPancake(PancakeRecipe pancake, PancakeServiceEntry entry) {
-		pancake.setOrderId(entry.id);
-		entry.recipes.add(pancake);
-		log.logAddPancake(entry.order, pancake.description(), entry.recipes);
+	private void addPancakes(String operation, UUID orderId, int count, Supplier<PancakeRecipe> recipe) {
+		var event = PancakeOperationEvent.begin(operation, orderId);
+		try {
+			var entry = entryOrThrow(orderId);
+			event.waitLock();
+			synchronized (entry) {
+				event.locked(entry.order.getBuilding());
+				checkOpen(entry);
+				var recipes = new ArrayList<>(entry.version.recipes());
+				var added = OrderRules.addPancakes(log, entry.order, recipes, count, recipe);
+				entry.publish(recipes);
+				if (!added.isEmpty()) {
+					listeners.forEach(listener -> listener.pancakesAdded(entry.order, added));
+				}
+				event.succeeded(recipes.size());
+			}
+		} finally {
+			event.finish();
+		}
 	}
 
 	/**
@@ -313,17 +500,71 @@ public class PancakeService {
 	};
 
 	/**
-	 * Order entry class
+	 * Immutable version of the order contents
+	 */
+	private record OrderVersion(List<PancakeRecipe> recipes, List<String> descriptions) {
+
+		private static final OrderVersion EMPTY = new OrderVersion(List.of(), List.of());
+
+		private static OrderVersion of(List<PancakeRecipe> recipes) {
+			return new OrderVersion(List.copyOf(recipes), recipes.stream().map(PancakeRecipe::description).toList());
+		}
+	}
+
+	/**
+	 * Aggregates a part of the orders, splitting it while it is larger than the
+	 * threshold
+	 */
+	private static class ReportTask extends RecursiveTask<OrderReport.Builder> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient Spliterator<PancakeServiceEntry> entries;
+		private final long threshold;
+
+		private ReportTask(Spliterator<PancakeServiceEntry> entries, long threshold) {
+			this.entries = entries;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected OrderReport.Builder compute() {
+			var split = entries.estimateSize() > threshold ? entries.trySplit() : null;
+			if (split != null) {
+				var left = new ReportTask(split, threshold);
+				left.fork();
+				var right = new ReportTask(entries, threshold).compute();
+				return right.merge(left.join());
+			}
+			var report = new OrderReport.Builder();
+			entries.forEachRemaining(entry -> {
+				var version = entry.version;
+				report.add(entry.order.getBuilding(), entry.status, version.recipes(), version.descriptions());
+			});
+			return report;
+		}
+	}
+
+	/**
+	 * Order entry class. Writers hold the entry monitor and build the next
+	 * version, readers only read the published version. Cancel and delivery
+	 * close the entry, so writers that were waiting for it fail as not found
 	 */
 	private static class PancakeServiceEntry {
 		public final UUID id;
 		public final Order order;
-		public final List<PancakeRecipe> recipes = Collections.synchronizedList(new ArrayList<>());
+		public volatile OrderVersion version = OrderVersion.EMPTY;
 		public CustomPancake custom;
+		public boolean closed;
+		public volatile OrderStatus status = OrderStatus.OPEN;
 
 		public PancakeServiceEntry(UUID id, Order order) {
 			this.id = id;
 			this.order = order;
 		}
+
+		public void publish(List<PancakeRecipe> recipes) {
+			version = OrderVersion.of(recipes);
+		}
 	}
 }
@@ -0,0 +1,83 @@
+package org.pancakelab.service;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.pancakelab.model.Order;
+import org.pancakelab.model.pancakes.PancakeRecipe;
+
+/**
+ * Receives the order changes of a {@link PancakeService}. Callbacks run on the
+ * calling thread, most of them while the order is locked, so they must be short
+ */
+public interface PancakeServiceListener {
+
+	/**
+	 * Called when the order is created
+	 *
+	 * @param order
+	 */
+	default void orderCreated(Order order) {
+	}
+
+	/**
+	 * Called when pancakes are added to the order
+	 *
+	 * @param order
+	 * @param added
+	 */
+	default void pancakesAdded(Order order, List<PancakeRecipe> added) {
+	}
+
+	/**
+	 * Called when pancakes are removed from the order
+	 *
+	 * @param order
+	 * @param removed
+	 */
+	default void pancakesRemoved(Order order, List<PancakeRecipe> removed) {
+	}
+
+	/**
+	 * Called when the order is marked as completed. The order may be unknown to
+	 * the service
+	 *
+	 * @param orderId
+	 */
+	default void orderCompleted(UUID orderId) {
+	}
+
+	/**
+	 * Called when the order is marked as being prepared
+	 *
+	 * @param order
+	 */
+	default void orderPrepared(Order order) {
+	}
+
+	/**
+	 * Called when the order is delivered and removed from the service
+	 *
+	 * @param order
+	 * @param pancakes
+	 */
+	default void orderDelivered(Order order, List<PancakeRecipe> pancakes) {
+	}
+
+	/**
+	 * Called when the order is cancelled and removed from the service
+	 *
+	 * @param order
+	 * @param pancakes
+	 */
+	default void orderCancelled(Order order, List<PancakeRecipe> pancakes) {
+	}
+
+	/**
+	 * Called when every order is discarded, before the service state is restored
+	 * from a snapshot. Orders restored afterwards are notified again
+	 */
+	default void ordersReset() {
+	}
+
+}
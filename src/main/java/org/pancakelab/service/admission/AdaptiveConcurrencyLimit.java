@@ -0,0 +1,94 @@
+package org.pancakelab.service.admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrency limit adjusted with AIMD: it grows by one every limit calls
+ * finished under the target latency and is cut by a tenth when a call is
+ * slower than the target. The slow calls already in flight when the limit is
+ * cut saw the old limit, so after a cut the limit is not cut again until limit
+ * more calls have finished, once per round trip.
+ *
+ * The limit and the calls finished since the last cut are kept in one long, a
+ * float in the high half and a count in the low half, updated with a CAS.
+ */
+class AdaptiveConcurrencyLimit {
+
+	private static final float BACKOFF = 0.9f;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final long targetNanos;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong state;
+
+	public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, long targetNanos) {
+		this.state = new AtomicLong(encode(initialLimit, initialLimit));
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.targetNanos = targetNanos;
+	}
+
+	/**
+	 * Takes a slot if the calls in flight stay within the share of the limit
+	 * given to the priority
+	 *
+	 * @param priority
+	 * @return
+	 */
+	public boolean tryAcquire(AdmissionPriority priority) {
+		var allowed = Math.max(1, (int) (limit(state.get()) * priority.getShare()));
+		while (true) {
+			var current = inFlight.get();
+			if (current >= allowed) {
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Releases a slot and feeds the latency of the call into the limit
+	 *
+	 * @param latencyNanos
+	 */
+	public void release(long latencyNanos) {
+		inFlight.decrementAndGet();
+		while (true) {
+			var current = state.get();
+			var limit = limit(current);
+			var finished = Math.min((int) current + 1, Integer.MAX_VALUE - 1);
+			long next;
+			if (latencyNanos <= targetNanos) {
+				next = encode(Math.min(maxLimit, limit + 1 / limit), finished);
+			} else if (finished > (int) limit) {
+				next = encode(Math.max(minLimit, limit * BACKOFF), 0);
+			} else {
+				next = encode(limit, finished);
+			}
+			if (state.compareAndSet(current, next)) {
+				return;
+			}
+		}
+	}
+
+	public int getLimit() {
+		return (int) limit(state.get());
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	private static long encode(float limit, int finished) {
+		return (long) Float.floatToIntBits(limit) << 32 | finished & 0xFFFFFFFFL;
+	}
+
+	private static float limit(long state) {
+		return Float.intBitsToFloat((int) (state >>> 32));
+	}
+
+}
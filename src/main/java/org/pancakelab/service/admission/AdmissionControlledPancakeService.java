@@ -0,0 +1,239 @@
+package org.pancakelab.service.admission;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.pancakelab.model.OrderDTO;
+import org.pancakelab.model.pancakes.PancakeIngredient;
+import org.pancakelab.service.OrderLog;
+import org.pancakelab.service.PancakeService;
+
+/**
+ * Pancake service that sheds load before it reaches the orders.
+ *
+ * Every call first takes a token from the bucket of the building of the order,
+ * then a slot of an adaptive concurrency limit. Deliveries and cancellations
+ * skip the building buckets and may use the whole limit, while new orders are
+ * the first to be rejected. Rejections throw a stackless
+ * {@link AdmissionRejectedException} without touching the orders.
+ *
+ * Buildings come from the callers, so once there are {@link #MAX_BUCKETS}
+ * buckets the ones that have refilled, and would behave like new ones, are
+ * dropped.
+ */
+public class AdmissionControlledPancakeService extends PancakeService {
+
+	public static final int MAX_BUCKETS = 4096;
+
+	private static final int NO_BUILDING = Integer.MIN_VALUE;
+
+	private final AdmissionPolicy policy;
+	private final AdaptiveConcurrencyLimit limit;
+	private final Map<Integer, TokenBucket> buckets = new ConcurrentHashMap<>();
+	private final LongAdder admitted = new LongAdder();
+	private final LongAdder rejectedByRate = new LongAdder();
+	private final LongAdder rejectedByConcurrency = new LongAdder();
+	private final AtomicInteger sweepAbove = new AtomicInteger(MAX_BUCKETS);
+
+	public AdmissionControlledPancakeService(OrderLog log) {
+		this(log, AdmissionPolicy.defaults());
+	}
+
+	public AdmissionControlledPancakeService(OrderLog log, AdmissionPolicy policy) {
+		super(log);
+		this.policy = policy;
+		this.limit = new AdaptiveConcurrencyLimit(policy.initialLimit(), policy.minLimit(), policy.maxLimit(), policy.targetLatency().toNanos());
+	}
+
+	/**
+	 * Returns the current state of the limiter
+	 *
+	 * @return
+	 */
+	public AdmissionStats admissionStats() {
+		return new AdmissionStats(limit.getLimit(), limit.getInFlight(), admitted.sum(), rejectedByRate.sum(), rejectedByConcurrency.sum());
+	}
+
+	@Override
+	public OrderDTO createOrder(int building, int room) {
+		return admit(AdmissionPriority.LOW, true, building, () -> super.createOrder(building, room));
+	}
+
+	@Override
+	public void createCustom(UUID orderId) {
+		run(AdmissionPriority.NORMAL, orderId, () -> super.createCustom(orderId));
+	}
+
+	@Override
+	public void addIngredient(UUID orderId, PancakeIngredient ingredient) {
+		run(AdmissionPriority.NORMAL, orderId, () -> super.addIngredient(orderId, ingredient));
+	}
+
+	@Override
+	public void finishCustom(UUID orderId) {
+		run(AdmissionPriority.NORMAL, orderId, () -> super.finishCustom(orderId));
+	}
+
+	@Override
+	public void addDarkChocolatePancake(UUID orderId, int count) {
+		run(AdmissionPriority.NORMAL, orderId, () -> super.addDarkChocolatePancake(orderId, count));
+	}
+
+	@Override
+	public void addDarkChocolateWhippedCreamPancake(UUID orderId, int count) {
+		run(AdmissionPriority.NORMAL, orderId, () -> super.addDarkChocolateWhippedCreamPancake(orderId, count));
+	}
+
+	@Override
+	public void addDarkChocolateWhippedCreamHazelnutsPancake(UUID orderId, int count) {
+		run(AdmissionPriority.NORMAL, orderId, () -> super.addDarkChocolateWhippedCreamHazelnutsPancake(orderId, count));
+	}
+
+	@Override
+	public void addMilkChocolatePancake(UUID orderId, int count) {
+		run(AdmissionPriority.NORMAL, orderId, () -> super.addMilkChocolatePancake(orderId, count));
+	}
+
+	@Override
+	public void addMilkChocolateHazelnutsPancake(UUID orderId, int count) {
+		run(AdmissionPriority.NORMAL, orderId, () -> super.addMilkChocolateHazelnutsPancake(orderId, count));
+	}
+
+	@Override
+	public List<String> viewOrder(UUID orderId) {
+		return call(AdmissionPriority.NORMAL, orderId, () -> super.viewOrder(orderId));
+	}
+
+	@Override
+	public void removePancakes(String description, UUID orderId, int count) {
+		run(AdmissionPriority.NORMAL, orderId, () -> super.removePancakes(description, orderId, count));
+	}
+
+	@Override
+	public void cancelOrder(UUID orderId) {
+		run(AdmissionPriority.CRITICAL, orderId, () -> super.cancelOrder(orderId));
+	}
+
+	@Override
+	public void completeOrder(UUID orderId) {
+		run(AdmissionPriority.NORMAL, orderId, () -> super.completeOrder(orderId));
+	}
+
+	@Override
+	public Set<UUID> listCompletedOrders() {
+		return admit(AdmissionPriority.NORMAL, false, NO_BUILDING, super::listCompletedOrders);
+	}
+
+	@Override
+	public void prepareOrder(UUID orderId) {
+		run(AdmissionPriority.NORMAL, orderId, () -> super.prepareOrder(orderId));
+	}
+
+	@Override
+	public Set<UUID> listPreparedOrders() {
+		return admit(AdmissionPriority.NORMAL, false, NO_BUILDING, super::listPreparedOrders);
+	}
+
+	@Override
+	public DeliverOrder deliverOrder(UUID orderId) {
+		return call(AdmissionPriority.CRITICAL, orderId, () -> super.deliverOrder(orderId));
+	}
+
+	/**
+	 * Runs a call on an existing order if admitted
+	 *
+	 * @param priority
+	 * @param orderId
+	 * @param call
+	 */
+	private void run(AdmissionPriority priority, UUID orderId, Runnable call) {
+		call(priority, orderId, () -> {
+			call.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Runs a call on an existing order if admitted, limited by the bucket of its
+	 * building when the order is found
+	 *
+	 * @param <T>
+	 * @param priority
+	 * @param orderId
+	 * @param call
+	 * @return
+	 */
+	private <T> T call(AdmissionPriority priority, UUID orderId, Supplier<T> call) {
+		var building = buildingOf(orderId, NO_BUILDING);
+		return admit(priority, building != NO_BUILDING, building, call);
+	}
+
+	/**
+	 * Runs the call if admitted by the building bucket and the concurrency limit
+	 *
+	 * @param <T>
+	 * @param priority
+	 * @param limited  false when the building is not known
+	 * @param building
+	 * @param call
+	 * @return
+	 */
+	private <T> T admit(AdmissionPriority priority, boolean limited, int building, Supplier<T> call) {
+		var start = System.nanoTime();
+		if (priority != AdmissionPriority.CRITICAL && limited && !bucket(building, start).tryAcquire(start)) {
+			rejectedByRate.increment();
+			throw new AdmissionRejectedException("rate limit exceeded for building " + building);
+		}
+		if (!limit.tryAcquire(priority)) {
+			rejectedByConcurrency.increment();
+			throw new AdmissionRejectedException("concurrency limit exceeded");
+		}
+		admitted.increment();
+		try {
+			return call.get();
+		} finally {
+			limit.release(System.nanoTime() - start);
+		}
+	}
+
+	private TokenBucket bucket(int building, long now) {
+		var bucket = buckets.get(building);
+		if (bucket != null) {
+			return bucket;
+		}
+		// swept before adding, so that the new bucket is not dropped while full
+		var threshold = sweepAbove.get();
+		if (buckets.size() >= threshold && sweepAbove.compareAndSet(threshold, Integer.MAX_VALUE)) {
+			sweep(now);
+		}
+		return buckets.computeIfAbsent(building, id -> new TokenBucket(policy.buildingRate(), policy.buildingBurst(), now));
+	}
+
+	/**
+	 * Drops the refilled buckets. Buckets still refilling are bounded by the
+	 * calls of the last refill period, the next sweep waits until their number
+	 * doubles
+	 *
+	 * @param now
+	 */
+	private void sweep(long now) {
+		buckets.values().removeIf(bucket -> bucket.isFull(now));
+		sweepAbove.set(Math.max(MAX_BUCKETS, buckets.size() * 2));
+	}
+
+	/**
+	 * Returns the number of building buckets
+	 *
+	 * @return
+	 */
+	int bucketCount() {
+		return buckets.size();
+	}
+
+}
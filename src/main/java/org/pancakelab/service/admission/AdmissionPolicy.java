@@ -0,0 +1,30 @@
+package org.pancakelab.service.admission;
+
+import java.time.Duration;
+
+/**
+ * Settings of the admission control
+ *
+ * @param buildingRate  calls per second allowed for each building
+ * @param buildingBurst calls a building may issue at once
+ * @param initialLimit  concurrency limit at start
+ * @param minLimit      lowest concurrency limit
+ * @param maxLimit      highest concurrency limit
+ * @param targetLatency latency above which the concurrency limit is decreased
+ */
+public record AdmissionPolicy(double buildingRate, int buildingBurst, int initialLimit, int minLimit, int maxLimit, Duration targetLatency) {
+
+	public AdmissionPolicy {
+		if (buildingRate <= 0 || buildingBurst <= 0) {
+			throw new IllegalArgumentException("building rate and burst must be positive");
+		}
+		if (minLimit <= 0 || minLimit > initialLimit || initialLimit > maxLimit) {
+			throw new IllegalArgumentException("limits must satisfy 0 < min <= initial <= max");
+		}
+	}
+
+	public static AdmissionPolicy defaults() {
+		return new AdmissionPolicy(1_000, 100, 64, 4, 1_024, Duration.ofMillis(20));
+	}
+
+}
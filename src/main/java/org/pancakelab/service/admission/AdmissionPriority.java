@@ -0,0 +1,39 @@
+package org.pancakelab.service.admission;
+
+/**
+ * Priority of a call. Under load, lower priorities are rejected first so that
+ * the calls that finish orders keep flowing
+ */
+public enum AdmissionPriority {
+
+	/**
+	 * Deliveries and cancellations, which release capacity
+	 */
+	CRITICAL(1.0),
+
+	/**
+	 * Changes and reads of existing orders
+	 */
+	NORMAL(0.9),
+
+	/**
+	 * New orders
+	 */
+	LOW(0.75);
+
+	private final double share;
+
+	private AdmissionPriority(double share) {
+		this.share = share;
+	}
+
+	/**
+	 * Returns the fraction of the concurrency limit the priority may use
+	 *
+	 * @return
+	 */
+	public double getShare() {
+		return share;
+	}
+
+}
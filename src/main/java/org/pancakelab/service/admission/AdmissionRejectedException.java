@@ -0,0 +1,20 @@
+package org.pancakelab.service.admission;
+
+/**
+ * Thrown when a call is shed. It carries no stack trace so that rejecting is
+ * cheap under overload
+ */
+public class AdmissionRejectedException extends IllegalStateException {
+
+	private static final long serialVersionUID = 1L;
+
+	public AdmissionRejectedException(String message) {
+		super(message);
+	}
+
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
+
+}
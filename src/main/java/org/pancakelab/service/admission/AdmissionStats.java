@@ -0,0 +1,7 @@
+package org.pancakelab.service.admission;
+
+/**
+ * Point in time view of the admission control, for monitoring
+ */
+public record AdmissionStats(int limit, int inFlight, long admitted, long rejectedByRate, long rejectedByConcurrency) {
+}
@@ -0,0 +1,49 @@
+package org.pancakelab.service.admission;
+
+/**
+ * Token bucket refilled continuously at a fixed rate
+ */
+class TokenBucket {
+
+	private final double tokensPerNano;
+	private final double capacity;
+	private double tokens;
+	private long refilledAt;
+
+	public TokenBucket(double tokensPerSecond, int capacity, long now) {
+		this.tokensPerNano = tokensPerSecond / 1_000_000_000d;
+		this.capacity = capacity;
+		this.tokens = capacity;
+		this.refilledAt = now;
+	}
+
+	/**
+	 * Takes a token if available
+	 *
+	 * @param now
+	 * @return
+	 */
+	public synchronized boolean tryAcquire(long now) {
+		if (now > refilledAt) {
+			tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+			refilledAt = now;
+		}
+		if (tokens < 1) {
+			return false;
+		}
+		tokens--;
+		return true;
+	}
+
+	/**
+	 * Returns true when the bucket has refilled to capacity, so that it behaves
+	 * like a new one
+	 *
+	 * @param now
+	 * @return
+	 */
+	public synchronized boolean isFull(long now) {
+		return tokens + Math.max(0, now - refilledAt) * tokensPerNano >= capacity;
+	}
+
+}
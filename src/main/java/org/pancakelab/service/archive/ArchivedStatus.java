@@ -0,0 +1,11 @@
+package org.pancakelab.service.archive;
+
+/**
+ * Final status of an archived order
+ */
+public enum ArchivedStatus {
+
+	DELIVERED, //
+	CANCELLED;
+
+}
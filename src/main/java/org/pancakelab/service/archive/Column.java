@@ -0,0 +1,20 @@
+package org.pancakelab.service.archive;
+
+/**
+ * Columns of an archive block. Order columns have one value per order, recipe
+ * columns have one value per distinct recipe of each order
+ */
+enum Column {
+
+	ID_MSB, //
+	ID_LSB, //
+	BUILDING, //
+	ROOM, //
+	CREATED_AT, //
+	FINISHED_AT, //
+	STATUS, //
+	RECIPES, //
+	RECIPE_ID, //
+	RECIPE_COUNT;
+
+}
@@ -0,0 +1,203 @@
+package org.pancakelab.service.archive;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Immutable block of archived orders stored column by column.
+ *
+ * Each column is a little-endian array of ints or longs compressed with
+ * deflate. The file is memory-mapped and a query inflates only the columns it
+ * reads.
+ *
+ * <pre>
+ * int magic, int rows, int recipeRows, int columns
+ * columns x (int column, int rawLength, int compressedLength)
+ * compressed column data, in the same order
+ * </pre>
+ */
+class ColumnBlock {
+
+	private static final int MAGIC = 0x50434b41;
+
+	private final MappedByteBuffer data;
+	private final int rows;
+	private final int recipeRows;
+	private final Map<Column, int[]> directory = new EnumMap<>(Column.class);
+
+	private ColumnBlock(MappedByteBuffer data) {
+		this.data = data;
+		data.order(ByteOrder.LITTLE_ENDIAN);
+		if (data.getInt(0) != MAGIC) {
+			throw new IllegalStateException("not an archive block");
+		}
+		this.rows = data.getInt(4);
+		this.recipeRows = data.getInt(8);
+		var columns = data.getInt(12);
+		var offset = 16 + columns * 12;
+		for (int i = 0; i < columns; i++) {
+			var column = Column.values()[data.getInt(16 + i * 12)];
+			var rawLength = data.getInt(20 + i * 12);
+			var compressedLength = data.getInt(24 + i * 12);
+			directory.put(column, new int[] { offset, compressedLength, rawLength });
+			offset += compressedLength;
+		}
+	}
+
+	/**
+	 * Maps a block file
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static ColumnBlock open(Path file) throws IOException {
+		try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return new ColumnBlock(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Compresses the columns into a block file and maps it
+	 *
+	 * @param file
+	 * @param rows
+	 * @param recipeRows
+	 * @param columns    arrays of int or long, by column
+	 * @return
+	 * @throws IOException
+	 */
+	public static ColumnBlock write(Path file, int rows, int recipeRows, Map<Column, Object> columns) throws IOException {
+		var compressed = new EnumMap<Column, byte[]>(Column.class);
+		var rawLengths = new EnumMap<Column, Integer>(Column.class);
+		var deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			for (var entry : columns.entrySet()) {
+				var raw = toBytes(entry.getValue(), entry.getKey() == Column.RECIPE_ID || entry.getKey() == Column.RECIPE_COUNT ? recipeRows : rows);
+				rawLengths.put(entry.getKey(), raw.remaining());
+				compressed.put(entry.getKey(), deflate(deflater, raw));
+			}
+		} finally {
+			deflater.end();
+		}
+
+		var header = ByteBuffer.allocate(16 + columns.size() * 12).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(rows).putInt(recipeRows).putInt(columns.size());
+		for (var entry : compressed.entrySet()) {
+			header.putInt(entry.getKey().ordinal()).putInt(rawLengths.get(entry.getKey())).putInt(entry.getValue().length);
+		}
+		header.flip();
+
+		var temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (var channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			writeFully(channel, header);
+			for (var bytes : compressed.values()) {
+				writeFully(channel, ByteBuffer.wrap(bytes));
+			}
+			channel.force(false);
+		}
+		Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+		return open(file);
+	}
+
+	public int rows() {
+		return rows;
+	}
+
+	public int recipeRows() {
+		return recipeRows;
+	}
+
+	/**
+	 * Inflates an int column
+	 *
+	 * @param column
+	 * @return
+	 */
+	public int[] ints(Column column) {
+		var raw = inflate(column);
+		var values = new int[raw.remaining() / Integer.BYTES];
+		raw.asIntBuffer().get(values);
+		return values;
+	}
+
+	/**
+	 * Inflates a long column
+	 *
+	 * @param column
+	 * @return
+	 */
+	public long[] longs(Column column) {
+		var raw = inflate(column);
+		var values = new long[raw.remaining() / Long.BYTES];
+		raw.asLongBuffer().get(values);
+		return values;
+	}
+
+	private ByteBuffer inflate(Column column) {
+		var entry = directory.get(column);
+		var input = data.slice(entry[0], entry[1]);
+		var output = ByteBuffer.allocate(entry[2]).order(ByteOrder.LITTLE_ENDIAN);
+		var inflater = new Inflater();
+		try {
+			inflater.setInput(input);
+			while (output.hasRemaining() && !inflater.finished()) {
+				if (inflater.inflate(output) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IllegalStateException("truncated column " + column);
+				}
+			}
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("corrupted column " + column, e);
+		} finally {
+			inflater.end();
+		}
+		return output.flip();
+	}
+
+	private static ByteBuffer toBytes(Object values, int length) {
+		if (values instanceof int[] ints) {
+			var bytes = ByteBuffer.allocate(length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			bytes.asIntBuffer().put(ints, 0, length);
+			return bytes;
+		}
+		var longs = (long[]) values;
+		var bytes = ByteBuffer.allocate(length * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		bytes.asLongBuffer().put(longs, 0, length);
+		return bytes;
+	}
+
+	private static byte[] deflate(Deflater deflater, ByteBuffer raw) {
+		deflater.reset();
+		deflater.setInput(raw);
+		deflater.finish();
+		var output = ByteBuffer.allocate(Math.max(64, raw.remaining() / 2));
+		while (!deflater.finished()) {
+			if (!output.hasRemaining()) {
+				output = ByteBuffer.allocate(output.capacity() * 2).put(output.flip());
+			}
+			deflater.deflate(output);
+		}
+		var bytes = new byte[output.position()];
+		output.flip().get(bytes);
+		return bytes;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer bytes) throws IOException {
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+	}
+
+}
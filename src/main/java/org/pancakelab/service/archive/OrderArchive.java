@@ -0,0 +1,735 @@
+package org.pancakelab.service.archive;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.pancakelab.model.Order;
+import org.pancakelab.model.pancakes.PancakeRecipe;
+import org.pancakelab.service.PancakeServiceListener;
+
+/**
+ * Column-oriented archive of delivered and cancelled orders.
+ *
+ * Listener callbacks only offer the finished order to a bounded queue. They
+ * never block nor throw: when the queue is full, the archive is closed or the
+ * writer failed, the order is dropped and counted, and the failure is exposed
+ * by {@link #failure()}, so the archive cannot stall or break the service it
+ * listens to. A single background
+ * thread dictionary encodes the recipe descriptions in a {@code recipes.dict}
+ * file, one description per line, appends the order to a {@code staging.bin}
+ * file forced once per batch, and then to an open block held in primitive
+ * arrays. When the block is full it is written as a compressed
+ * {@link ColumnBlock} file, memory-mapped, and the staging file is truncated.
+ * On restart the staged orders are replayed into the open block, so an order is
+ * not lost with the process once its batch is staged.
+ *
+ * After each batch the writer publishes an immutable snapshot of the blocks and
+ * of the filled part of the open block. Aggregate queries read the snapshot
+ * without any lock, inflate only the columns they need and count them in plain
+ * loops over primitive arrays, without rebuilding any order.
+ *
+ * <pre>
+ * staging: int block, rows x (long msb, long lsb, int building, int room,
+ *          long createdAt, long finishedAt, int status, int recipes,
+ *          recipes x (int recipeId, int count))
+ * </pre>
+ */
+public class OrderArchive implements PancakeServiceListener, Closeable {
+
+	public static final int DEFAULT_BLOCK_SIZE = 65_536;
+	public static final int DEFAULT_QUEUE_CAPACITY = 8_192;
+
+	private static final long DAY_MILLIS = 86_400_000L;
+	private static final int DENSE_RANGE = 1 << 16;
+	private static final long POLL_MILLIS = 10;
+	private static final String DICTIONARY = "recipes.dict";
+	private static final String STAGING = "staging.bin";
+	private static final String PREFIX = "block-";
+	private static final String SUFFIX = ".col";
+
+	private final Path directory;
+	private final int blockSize;
+	private final BlockingQueue<Object> queue;
+	private final Thread writer;
+	private final Map<String, Integer> recipeIds = new HashMap<>();
+	private final ByteArrayOutputStream staged = new ByteArrayOutputStream();
+	private final DataOutputStream stagedOut = new DataOutputStream(staged);
+	private final FileChannel dictionary;
+	private final FileChannel staging;
+	private String[] recipes = new String[16];
+	private int recipeSize;
+	private boolean dictionaryDirty;
+	private List<ColumnBlock> blocks = List.of();
+	private OpenBlock open;
+	private volatile Snapshot snapshot;
+	private final LongAdder dropped = new LongAdder();
+	private volatile boolean closed;
+	private volatile Throwable failure;
+
+	public OrderArchive(Path directory) {
+		this(directory, DEFAULT_BLOCK_SIZE);
+	}
+
+	public OrderArchive(Path directory, int blockSize) {
+		this(directory, blockSize, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	/**
+	 * Opens the archive in the directory, replaying the staged orders
+	 *
+	 * @param directory
+	 * @param blockSize     orders per block
+	 * @param queueCapacity finished orders waiting for the writer before new
+	 *                      ones are dropped
+	 */
+	public OrderArchive(Path directory, int blockSize, int queueCapacity) {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("block size must be positive");
+		}
+		this.directory = directory;
+		this.blockSize = blockSize;
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.open = new OpenBlock(blockSize);
+		try {
+			Files.createDirectories(directory);
+			this.dictionary = FileChannel.open(directory.resolve(DICTIONARY), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			loadDictionary();
+			loadBlocks();
+			var replay = readStaging();
+			this.staging = FileChannel.open(directory.resolve(STAGING), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			resetStaging();
+			for (var row : replay) {
+				stage(row);
+			}
+			commit();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		this.writer = new Thread(this::drain, "order-archive");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@Override
+	public void orderDelivered(Order order, List<PancakeRecipe> pancakes) {
+		append(order, pancakes, ArchivedStatus.DELIVERED, System.currentTimeMillis());
+	}
+
+	@Override
+	public void orderCancelled(Order order, List<PancakeRecipe> pancakes) {
+		append(order, pancakes, ArchivedStatus.CANCELLED, System.currentTimeMillis());
+	}
+
+	/**
+	 * Offers a finished order to the writer without waiting. The order is
+	 * dropped and counted when the queue is full, the archive is closed or the
+	 * writer failed
+	 *
+	 * @param order
+	 * @param pancakes
+	 * @param finalStatus
+	 * @param finishedAtMillis
+	 * @return whether the order was queued
+	 */
+	public boolean append(Order order, List<PancakeRecipe> pancakes, ArchivedStatus finalStatus, long finishedAtMillis) {
+		var descriptions = new String[pancakes.size()];
+		for (int i = 0; i < descriptions.length; i++) {
+			descriptions[i] = pancakes.get(i).description();
+		}
+		var finished = new Finished(order.getId(), order.getBuilding(), order.getRoom(), order.getCreatedAt(), finishedAtMillis, finalStatus, descriptions);
+		if (closed || failure != null || !queue.offer(finished)) {
+			dropped.increment();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of finished orders that were not archived
+	 *
+	 * @return
+	 */
+	public long dropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Returns the error that stopped the writer, or null while it runs
+	 *
+	 * @return
+	 */
+	public Throwable failure() {
+		return failure;
+	}
+
+	/**
+	 * Waits until the orders appended so far are staged and visible to queries
+	 */
+	public void sync() {
+		barrier(false);
+	}
+
+	/**
+	 * Writes the open block, even if not full
+	 */
+	public void flush() {
+		barrier(true);
+	}
+
+	private void barrier(boolean seal) {
+		try {
+			await(new Barrier(new CountDownLatch(1), seal, false));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while waiting for the archive", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			await(new Barrier(new CountDownLatch(1), true, true));
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				staging.close();
+				dictionary.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of archived orders
+	 *
+	 * @return
+	 */
+	public long count() {
+		var current = snapshot;
+		var total = (long) current.rows();
+		for (var block : current.blocks()) {
+			total += block.rows();
+		}
+		return total;
+	}
+
+	/**
+	 * Counts the archived orders by building
+	 *
+	 * @return
+	 */
+	public Map<Integer, Long> countByBuilding() {
+		var current = snapshot;
+		var result = new TreeMap<Integer, Long>();
+		for (var block : current.blocks()) {
+			countInts(block.ints(Column.BUILDING), block.rows(), result);
+		}
+		countInts(current.building(), current.rows(), result);
+		return result;
+	}
+
+	/**
+	 * Counts the archived orders by final status
+	 *
+	 * @return
+	 */
+	public Map<ArchivedStatus, Long> countByStatus() {
+		var current = snapshot;
+		var counts = new long[ArchivedStatus.values().length];
+		for (var block : current.blocks()) {
+			countOrdinals(block.ints(Column.STATUS), block.rows(), counts);
+		}
+		countOrdinals(current.status(), current.rows(), counts);
+		var result = new EnumMap<ArchivedStatus, Long>(ArchivedStatus.class);
+		for (var value : ArchivedStatus.values()) {
+			result.put(value, counts[value.ordinal()]);
+		}
+		return result;
+	}
+
+	/**
+	 * Counts the archived pancakes by recipe description
+	 *
+	 * @return
+	 */
+	public Map<String, Long> countByRecipe() {
+		var current = snapshot;
+		var counts = new long[current.recipeSize()];
+		for (var block : current.blocks()) {
+			sumByRecipe(block.ints(Column.RECIPE_ID), block.ints(Column.RECIPE_COUNT), block.recipeRows(), counts);
+		}
+		sumByRecipe(current.recipeId(), current.recipeCount(), current.recipeRows(), counts);
+		var result = new TreeMap<String, Long>();
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] > 0) {
+				result.put(current.recipes()[i], counts[i]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Counts the archived orders by the day they were finished
+	 *
+	 * @param offset
+	 * @return
+	 */
+	public Map<LocalDate, Long> countByDay(ZoneOffset offset) {
+		var current = snapshot;
+		var offsetMillis = offset.getTotalSeconds() * 1_000L;
+		var days = new TreeMap<Long, Long>();
+		for (var block : current.blocks()) {
+			countDays(block.longs(Column.FINISHED_AT), block.rows(), offsetMillis, days);
+		}
+		countDays(current.finishedAt(), current.rows(), offsetMillis, days);
+		var result = new TreeMap<LocalDate, Long>();
+		days.forEach((day, count) -> result.put(LocalDate.ofEpochDay(day), count));
+		return result;
+	}
+
+	private static void countInts(int[] values, int length, Map<Integer, Long> result) {
+		if (length == 0) {
+			return;
+		}
+		var min = values[0];
+		var max = values[0];
+		for (int i = 1; i < length; i++) {
+			min = Math.min(min, values[i]);
+			max = Math.max(max, values[i]);
+		}
+		if ((long) max - min < DENSE_RANGE) {
+			var counts = new long[max - min + 1];
+			for (int i = 0; i < length; i++) {
+				counts[values[i] - min]++;
+			}
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] > 0) {
+					result.merge(min + i, counts[i], Long::sum);
+				}
+			}
+		} else {
+			for (int i = 0; i < length; i++) {
+				result.merge(values[i], 1L, Long::sum);
+			}
+		}
+	}
+
+	private static void countOrdinals(int[] values, int length, long[] counts) {
+		for (int i = 0; i < length; i++) {
+			counts[values[i]]++;
+		}
+	}
+
+	private static void sumByRecipe(int[] ids, int[] counts, int length, long[] sums) {
+		for (int i = 0; i < length; i++) {
+			sums[ids[i]] += counts[i];
+		}
+	}
+
+	private static void countDays(long[] timestamps, int length, long offsetMillis, Map<Long, Long> result) {
+		for (int i = 0; i < length;) {
+			var day = Math.floorDiv(timestamps[i] + offsetMillis, DAY_MILLIS);
+			var start = i;
+			while (i < length && Math.floorDiv(timestamps[i] + offsetMillis, DAY_MILLIS) == day) {
+				i++;
+			}
+			result.merge(day, (long) (i - start), Long::sum);
+		}
+	}
+
+	/**
+	 * Queues the barrier and waits for the writer to reach it, giving up when the
+	 * writer stopped
+	 *
+	 * @param barrier
+	 * @throws InterruptedException
+	 */
+	private void await(Barrier barrier) throws InterruptedException {
+		while (!queue.offer(barrier, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+			checkWriter();
+		}
+		while (!barrier.done().await(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+			checkWriter();
+		}
+	}
+
+	private void checkWriter() {
+		var error = failure;
+		if (error instanceof IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if (error != null) {
+			throw new IllegalStateException("archive writer failed", error);
+		}
+		if (!writer.isAlive()) {
+			throw new IllegalStateException("archive writer stopped");
+		}
+	}
+
+	/**
+	 * Writer loop: stages each batch taken from the queue and publishes it
+	 */
+	private void drain() {
+		var batch = new ArrayList<Object>();
+		try {
+			while (true) {
+				batch.add(queue.take());
+				queue.drainTo(batch);
+				for (var item : batch) {
+					if (item instanceof Finished finished) {
+						stage(encode(finished));
+						continue;
+					}
+					var barrier = (Barrier) item;
+					commit();
+					if (barrier.seal()) {
+						seal();
+					}
+					barrier.done().countDown();
+					if (barrier.stop()) {
+						return;
+					}
+				}
+				batch.clear();
+				commit();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Throwable e) {
+			failure = e;
+		}
+	}
+
+	private Row encode(Finished finished) throws IOException {
+		var counts = new LinkedHashMap<Integer, Integer>();
+		for (var description : finished.descriptions()) {
+			counts.merge(recipeId(description), 1, Integer::sum);
+		}
+		var ids = new int[counts.size()];
+		var recipeCounts = new int[counts.size()];
+		var i = 0;
+		for (var entry : counts.entrySet()) {
+			ids[i] = entry.getKey();
+			recipeCounts[i++] = entry.getValue();
+		}
+		var id = finished.id();
+		return new Row(id.getMostSignificantBits(), id.getLeastSignificantBits(), finished.building(), finished.room(), finished.createdAt(), finished.finishedAt(),
+				finished.status().ordinal(), ids, recipeCounts);
+	}
+
+	/**
+	 * Adds a row to the pending staging bytes and to the open block, sealing the
+	 * block when full
+	 *
+	 * @param row
+	 * @throws IOException
+	 */
+	private void stage(Row row) throws IOException {
+		row.write(stagedOut);
+		open.add(row);
+		if (open.rows == blockSize) {
+			seal();
+		}
+	}
+
+	/**
+	 * Forces the pending staging bytes and publishes the rows to queries
+	 *
+	 * @throws IOException
+	 */
+	private void commit() throws IOException {
+		if (staged.size() > 0) {
+			forceDictionary();
+			writeFully(staging, ByteBuffer.wrap(staged.toByteArray()));
+			staging.force(false);
+			staged.reset();
+		}
+		publish();
+	}
+
+	/**
+	 * Writes the open block and starts an empty staging file for the next one
+	 *
+	 * @throws IOException
+	 */
+	private void seal() throws IOException {
+		if (open.rows == 0) {
+			return;
+		}
+		forceDictionary();
+		var file = directory.resolve("%s%010d%s".formatted(PREFIX, blocks.size() + 1, SUFFIX));
+		var sealed = new ArrayList<>(blocks);
+		sealed.add(ColumnBlock.write(file, open.rows, open.recipeRows, open.columns()));
+		blocks = List.copyOf(sealed);
+		open = new OpenBlock(blockSize);
+		staged.reset();
+		resetStaging();
+		publish();
+	}
+
+	private void publish() {
+		snapshot = new Snapshot(blocks, recipes, recipeSize, open.rows, open.recipeRows, open.building, open.status, open.finishedAt, open.recipeId, open.recipeCount);
+	}
+
+	private int recipeId(String description) throws IOException {
+		var id = recipeIds.get(description);
+		if (id == null) {
+			id = recipeSize;
+			writeFully(dictionary, ByteBuffer.wrap((description + "\n").getBytes(StandardCharsets.UTF_8)));
+			dictionaryDirty = true;
+			addRecipe(description);
+		}
+		return id;
+	}
+
+	private void addRecipe(String description) {
+		if (recipeSize == recipes.length) {
+			recipes = Arrays.copyOf(recipes, recipeSize * 2);
+		}
+		recipeIds.put(description, recipeSize);
+		recipes[recipeSize++] = description;
+	}
+
+	private void forceDictionary() throws IOException {
+		if (dictionaryDirty) {
+			dictionary.force(false);
+			dictionaryDirty = false;
+		}
+	}
+
+	private void resetStaging() throws IOException {
+		staging.truncate(0);
+		writeFully(staging, ByteBuffer.allocate(Integer.BYTES).putInt(0, blocks.size() + 1).position(0));
+		staging.force(false);
+	}
+
+	/**
+	 * Reads the dictionary, dropping a last line torn by a crash, and positions
+	 * the channel for appending
+	 *
+	 * @throws IOException
+	 */
+	private void loadDictionary() throws IOException {
+		var bytes = Files.readAllBytes(directory.resolve(DICTIONARY));
+		var length = bytes.length;
+		while (length > 0 && bytes[length - 1] != '\n') {
+			length--;
+		}
+		dictionary.truncate(length);
+		dictionary.position(length);
+		var text = new String(bytes, 0, length, StandardCharsets.UTF_8);
+		if (!text.isEmpty()) {
+			for (var description : text.split("\n")) {
+				addRecipe(description);
+			}
+		}
+	}
+
+	private void loadBlocks() throws IOException {
+		var loaded = new ArrayList<ColumnBlock>();
+		try (var files = Files.list(directory)) {
+			var names = files.map(file -> file.getFileName().toString()) //
+					.filter(name -> name.startsWith(PREFIX) && name.endsWith(SUFFIX)) //
+					.sorted() //
+					.toList();
+			for (var name : names) {
+				loaded.add(ColumnBlock.open(directory.resolve(name)));
+			}
+		}
+		blocks = List.copyOf(loaded);
+	}
+
+	/**
+	 * Reads the staged rows of the open block, up to a record torn by a crash.
+	 * Rows staged for a block that was written before the crash are dropped.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private List<Row> readStaging() throws IOException {
+		var rows = new ArrayList<Row>();
+		var file = directory.resolve(STAGING);
+		if (!Files.exists(file)) {
+			return rows;
+		}
+		try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != blocks.size() + 1) {
+				return rows;
+			}
+			while (true) {
+				rows.add(Row.read(in));
+			}
+		} catch (EOFException e) {
+			return rows;
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer bytes) throws IOException {
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+	}
+
+	/**
+	 * Finished order as enqueued by the calling thread
+	 */
+	private record Finished(UUID id, int building, int room, long createdAt, long finishedAt, ArchivedStatus status, String[] descriptions) {
+	}
+
+	/**
+	 * Queue marker released once the items before it are staged
+	 */
+	private record Barrier(CountDownLatch done, boolean seal, boolean stop) {
+	}
+
+	/**
+	 * Dictionary encoded order, as staged and added to the open block
+	 */
+	private record Row(long idMsb, long idLsb, int building, int room, long createdAt, long finishedAt, int status, int[] recipeId, int[] recipeCount) {
+
+		private void write(DataOutputStream out) throws IOException {
+			out.writeLong(idMsb);
+			out.writeLong(idLsb);
+			out.writeInt(building);
+			out.writeInt(room);
+			out.writeLong(createdAt);
+			out.writeLong(finishedAt);
+			out.writeInt(status);
+			out.writeInt(recipeId.length);
+			for (int i = 0; i < recipeId.length; i++) {
+				out.writeInt(recipeId[i]);
+				out.writeInt(recipeCount[i]);
+			}
+		}
+
+		private static Row read(DataInputStream in) throws IOException {
+			var idMsb = in.readLong();
+			var idLsb = in.readLong();
+			var building = in.readInt();
+			var room = in.readInt();
+			var createdAt = in.readLong();
+			var finishedAt = in.readLong();
+			var status = in.readInt();
+			var recipes = in.readInt();
+			var recipeId = new int[recipes];
+			var recipeCount = new int[recipes];
+			for (int i = 0; i < recipes; i++) {
+				recipeId[i] = in.readInt();
+				recipeCount[i] = in.readInt();
+			}
+			return new Row(idMsb, idLsb, building, room, createdAt, finishedAt, status, recipeId, recipeCount);
+		}
+
+	}
+
+	/**
+	 * Published view of the archive. The arrays of the open block are only
+	 * written past the published rows, so queries can read them without a lock
+	 */
+	private record Snapshot(List<ColumnBlock> blocks, String[] recipes, int recipeSize, int rows, int recipeRows, int[] building, int[] status, long[] finishedAt,
+			int[] recipeId, int[] recipeCount) {
+	}
+
+	/**
+	 * Block being filled by the writer thread
+	 */
+	private static class OpenBlock {
+
+		private final long[] idMsb;
+		private final long[] idLsb;
+		private final int[] building;
+		private final int[] room;
+		private final long[] createdAt;
+		private final long[] finishedAt;
+		private final int[] status;
+		private final int[] recipeCounts;
+		private int[] recipeId = new int[16];
+		private int[] recipeCount = new int[16];
+		private int rows;
+		private int recipeRows;
+
+		private OpenBlock(int blockSize) {
+			this.idMsb = new long[blockSize];
+			this.idLsb = new long[blockSize];
+			this.building = new int[blockSize];
+			this.room = new int[blockSize];
+			this.createdAt = new long[blockSize];
+			this.finishedAt = new long[blockSize];
+			this.status = new int[blockSize];
+			this.recipeCounts = new int[blockSize];
+		}
+
+		private void add(Row row) {
+			var recipes = row.recipeId().length;
+			if (recipeRows + recipes > recipeId.length) {
+				var length = Math.max(recipeId.length * 2, recipeRows + recipes);
+				recipeId = Arrays.copyOf(recipeId, length);
+				recipeCount = Arrays.copyOf(recipeCount, length);
+			}
+			System.arraycopy(row.recipeId(), 0, recipeId, recipeRows, recipes);
+			System.arraycopy(row.recipeCount(), 0, recipeCount, recipeRows, recipes);
+			recipeRows += recipes;
+			idMsb[rows] = row.idMsb();
+			idLsb[rows] = row.idLsb();
+			building[rows] = row.building();
+			room[rows] = row.room();
+			createdAt[rows] = row.createdAt();
+			finishedAt[rows] = row.finishedAt();
+			status[rows] = row.status();
+			recipeCounts[rows] = recipes;
+			rows++;
+		}
+
+		private Map<Column, Object> columns() {
+			var columns = new EnumMap<Column, Object>(Column.class);
+			columns.put(Column.ID_MSB, idMsb);
+			columns.put(Column.ID_LSB, idLsb);
+			columns.put(Column.BUILDING, building);
+			columns.put(Column.ROOM, room);
+			columns.put(Column.CREATED_AT, createdAt);
+			columns.put(Column.FINISHED_AT, finishedAt);
+			columns.put(Column.STATUS, status);
+			columns.put(Column.RECIPES, recipeCounts);
+			columns.put(Column.RECIPE_ID, recipeId);
+			columns.put(Column.RECIPE_COUNT, recipeCount);
+			return columns;
+		}
+
+	}
+
+}
@@ -0,0 +1,117 @@
+package org.pancakelab.service.capture;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import org.pancakelab.model.pancakes.PancakeIngredient;
+
+/**
+ * Reads the calls written by a {@link CaptureWriter}
+ */
+public class CaptureReader {
+
+	private CaptureReader() {
+	}
+
+	/**
+	 * Reads every call of a capture, sorted by sequence
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<CapturedCall> read(Path file) throws IOException {
+		var operations = CapturedOperation.values();
+		var ingredients = PancakeIngredient.values();
+		var orders = new ArrayList<UUID>();
+		var descriptions = new ArrayList<String>();
+		var calls = new ArrayList<CapturedCall>();
+		try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+			if (in.readInt() != CaptureWriter.MAGIC || in.readByte() != CaptureWriter.VERSION) {
+				throw new IllegalStateException("not a capture file");
+			}
+			while (true) {
+				var operation = in.read();
+				if (operation < 0) {
+					break;
+				}
+				try {
+					var sequence = readVarLong(in);
+					var nanos = readVarLong(in);
+					var threadId = readVarLong(in);
+					var orderId = readOrder(in, orders);
+					var building = unzigzag(readVarLong(in));
+					var room = unzigzag(readVarLong(in));
+					var count = unzigzag(readVarLong(in));
+					var ingredient = in.readByte();
+					var description = readDescription(in, descriptions);
+					calls.add(new CapturedCall(sequence, nanos, threadId, operations[operation], orderId, building, room, count,
+							ingredient < 0 ? null : ingredients[ingredient], description));
+				} catch (EOFException e) {
+					// call cut short by a crash of the capturing process
+					break;
+				}
+			}
+		}
+		calls.sort(Comparator.comparingLong(CapturedCall::sequence));
+		return calls;
+	}
+
+	private static UUID readOrder(DataInputStream in, List<UUID> orders) throws IOException {
+		var ref = readVarLong(in);
+		if (ref == 0) {
+			return null;
+		}
+		if (ref == 1) {
+			var orderId = new UUID(in.readLong(), in.readLong());
+			if (orders.size() == CaptureWriter.MAX_REFS) {
+				orders.clear();
+			}
+			orders.add(orderId);
+			return orderId;
+		}
+		return orders.get((int) (ref - 2));
+	}
+
+	private static String readDescription(DataInputStream in, List<String> descriptions) throws IOException {
+		var ref = readVarLong(in);
+		if (ref == 0) {
+			return null;
+		}
+		if (ref == 1) {
+			var description = in.readUTF();
+			if (descriptions.size() == CaptureWriter.MAX_REFS) {
+				descriptions.clear();
+			}
+			descriptions.add(description);
+			return description;
+		}
+		return descriptions.get((int) (ref - 2));
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			var b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalStateException("malformed varint");
+	}
+
+	private static int unzigzag(long value) {
+		var bits = (int) value;
+		return (bits >>> 1) ^ -(bits & 1);
+	}
+
+}
@@ -0,0 +1,222 @@
+package org.pancakelab.service.capture;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes captured calls to a binary file.
+ *
+ * Calling threads only enqueue their call; a single background thread encodes
+ * and writes them, so the service never waits on the file. The queue is
+ * bounded: when the writer falls behind, calls are dropped and counted rather
+ * than buffered without limit, and show up as gaps in the sequence. Numbers are
+ * varints, and order ids and descriptions are written in full the first time
+ * only, then referenced by index. Each table of references holds at most
+ * {@link #MAX_REFS} entries; when a new entry does not fit, the writer and the
+ * reader both clear the table and start numbering again.
+ *
+ * <pre>
+ * int magic, byte version
+ * calls x (byte operation, varlong sequence, varlong nanos, varlong thread,
+ *          order ref, zigzag building, zigzag room, zigzag count,
+ *          byte ingredient, description ref)
+ * order ref: 0 = none, 1 = new followed by two longs, n + 2 = order n
+ * description ref: 0 = none, 1 = new followed by UTF, n + 2 = description n
+ * </pre>
+ */
+public class CaptureWriter implements Closeable {
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 1 << 16;
+
+	static final int MAGIC = 0x50434b43;
+	static final byte VERSION = 2;
+	static final int MAX_REFS = 1 << 16;
+
+	private static final long IDLE_MILLIS = 100;
+
+	private final BlockingQueue<CapturedCall> queue;
+	private final LongAdder dropped = new LongAdder();
+	private final DataOutputStream out;
+	private final Thread writer;
+	private final Map<UUID, Integer> orders = new HashMap<>();
+	private final Map<String, Integer> descriptions = new HashMap<>();
+	private volatile boolean closed;
+	private volatile IOException failure;
+	private volatile long written;
+
+	public CaptureWriter(Path file) {
+		this(file, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	public CaptureWriter(Path file, int queueCapacity) {
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		try {
+			this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		this.writer = new Thread(this::drain, "capture-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Enqueues a call, ignored once closed and dropped when the queue is full
+	 *
+	 * @param call
+	 */
+	public void append(CapturedCall call) {
+		if (!closed && !queue.offer(call)) {
+			dropped.increment();
+		}
+	}
+
+	/**
+	 * Returns the number of calls dropped because the queue was full
+	 *
+	 * @return
+	 */
+	public long dropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Returns the number of calls written so far
+	 *
+	 * @return
+	 */
+	public long written() {
+		return written;
+	}
+
+	/**
+	 * Writes the pending calls and closes the file
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		writer.interrupt();
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure != null) {
+			throw new UncheckedIOException(failure);
+		}
+	}
+
+	/**
+	 * Writes the calls as they come, flushing once the queue is empty after a
+	 * write, and blocks on the queue while idle until closed
+	 */
+	private void drain() {
+		try (out) {
+			var unflushed = false;
+			while (true) {
+				var call = queue.poll();
+				if (call == null && unflushed) {
+					out.flush();
+					unflushed = false;
+					continue;
+				}
+				if (call == null) {
+					if (closed) {
+						break;
+					}
+					try {
+						call = queue.poll(IDLE_MILLIS, TimeUnit.MILLISECONDS);
+					} catch (InterruptedException e) {
+						// interrupted by close, the loop drains what is left
+					}
+				}
+				if (call != null) {
+					write(call);
+					unflushed = true;
+				}
+			}
+		} catch (IOException e) {
+			failure = e;
+			closed = true;
+			queue.clear();
+		}
+	}
+
+	private void write(CapturedCall call) throws IOException {
+		out.writeByte(call.operation().ordinal());
+		writeVarLong(call.sequence());
+		writeVarLong(call.nanos());
+		writeVarLong(call.threadId());
+		writeOrder(call.orderId());
+		writeVarLong(zigzag(call.building()));
+		writeVarLong(zigzag(call.room()));
+		writeVarLong(zigzag(call.count()));
+		out.writeByte(call.ingredient() == null ? -1 : call.ingredient().ordinal());
+		writeDescription(call.description());
+		written++;
+	}
+
+	private void writeOrder(UUID orderId) throws IOException {
+		if (orderId == null) {
+			writeVarLong(0);
+			return;
+		}
+		var index = orders.get(orderId);
+		if (index != null) {
+			writeVarLong(index + 2L);
+			return;
+		}
+		if (orders.size() == MAX_REFS) {
+			orders.clear();
+		}
+		orders.put(orderId, orders.size());
+		writeVarLong(1);
+		out.writeLong(orderId.getMostSignificantBits());
+		out.writeLong(orderId.getLeastSignificantBits());
+	}
+
+	private void writeDescription(String description) throws IOException {
+		if (description == null) {
+			writeVarLong(0);
+			return;
+		}
+		var index = descriptions.get(description);
+		if (index != null) {
+			writeVarLong(index + 2L);
+			return;
+		}
+		if (descriptions.size() == MAX_REFS) {
+			descriptions.clear();
+		}
+		descriptions.put(description, descriptions.size());
+		writeVarLong(1);
+		out.writeUTF(description);
+	}
+
+	private void writeVarLong(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long zigzag(int value) {
+		return Integer.toUnsignedLong((value << 1) ^ (value >> 31));
+	}
+
+}
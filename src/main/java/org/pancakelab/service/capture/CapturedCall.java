@@ -0,0 +1,24 @@
+package org.pancakelab.service.capture;
+
+import java.util.UUID;
+
+import org.pancakelab.model.pancakes.PancakeIngredient;
+
+/**
+ * Call of the pancake service, with the arguments used by its operation. For
+ * {@link CapturedOperation#CREATE_ORDER} the order id is the created one
+ *
+ * @param sequence    order in which the calls were recorded
+ * @param nanos       time since the capture started
+ * @param threadId    thread that made the call
+ * @param operation
+ * @param orderId
+ * @param building
+ * @param room
+ * @param count
+ * @param ingredient
+ * @param description
+ */
+public record CapturedCall(long sequence, long nanos, long threadId, CapturedOperation operation, UUID orderId, int building, int room, int count,
+		PancakeIngredient ingredient, String description) {
+}
@@ -0,0 +1,26 @@
+package org.pancakelab.service.capture;
+
+/**
+ * Public operations of the pancake service, as stored in a capture
+ */
+public enum CapturedOperation {
+
+	CREATE_ORDER, //
+	CREATE_CUSTOM, //
+	ADD_INGREDIENT, //
+	FINISH_CUSTOM, //
+	ADD_DARK_CHOCOLATE, //
+	ADD_DARK_CHOCOLATE_WHIPPED_CREAM, //
+	ADD_DARK_CHOCOLATE_WHIPPED_CREAM_HAZELNUTS, //
+	ADD_MILK_CHOCOLATE, //
+	ADD_MILK_CHOCOLATE_HAZELNUTS, //
+	VIEW_ORDER, //
+	REMOVE_PANCAKES, //
+	CANCEL_ORDER, //
+	COMPLETE_ORDER, //
+	LIST_COMPLETED_ORDERS, //
+	PREPARE_ORDER, //
+	LIST_PREPARED_ORDERS, //
+	DELIVER_ORDER;
+
+}
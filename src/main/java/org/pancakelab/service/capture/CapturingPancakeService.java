@@ -0,0 +1,211 @@
+package org.pancakelab.service.capture;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pancakelab.model.OrderDTO;
+import org.pancakelab.model.pancakes.PancakeIngredient;
+import org.pancakelab.service.OrderLog;
+import org.pancakelab.service.PancakeService;
+
+/**
+ * Pancake service that can record its traffic.
+ *
+ * While a capture is running every call is handed to a {@link CaptureWriter}
+ * with its arguments, the time since the capture started and the calling
+ * thread. Calls are recorded when they start, so failed calls are captured
+ * too; created orders are recorded once their id is known. Without a capture
+ * the only cost is a volatile read.
+ *
+ * The sequence is taken when a call is recorded, before it runs and without
+ * holding the lock of its order, so calls of the same order made at the same
+ * time from different threads may be recorded in a different order than the
+ * one they ran in, and replay in the recorded one. Calls of an order made by a
+ * single thread, or one after the other, keep their order.
+ */
+public class CapturingPancakeService extends PancakeService {
+
+	private volatile Capture capture;
+	private volatile long lastDropped;
+
+	public CapturingPancakeService(OrderLog log) {
+		super(log);
+	}
+
+	/**
+	 * Starts recording the calls to a new file
+	 *
+	 * @param file
+	 */
+	public synchronized void startCapture(Path file) {
+		if (capture != null) {
+			throw new IllegalStateException("Capture already running");
+		}
+		capture = new Capture(new CaptureWriter(file), System.nanoTime());
+	}
+
+	/**
+	 * Stops recording and writes the pending calls
+	 *
+	 * @return the number of captured calls
+	 */
+	public synchronized long stopCapture() {
+		var current = capture;
+		if (current == null) {
+			throw new IllegalStateException("No capture running");
+		}
+		capture = null;
+		current.writer.close();
+		lastDropped = current.writer.dropped();
+		return current.writer.written();
+	}
+
+	public boolean isCapturing() {
+		return capture != null;
+	}
+
+	/**
+	 * Returns the calls dropped by the running capture, or by the last one,
+	 * because the writer fell behind
+	 *
+	 * @return
+	 */
+	public long droppedCalls() {
+		var current = capture;
+		return current != null ? current.writer.dropped() : lastDropped;
+	}
+
+	@Override
+	public OrderDTO createOrder(int building, int room) {
+		var order = super.createOrder(building, room);
+		record(CapturedOperation.CREATE_ORDER, order.getId(), building, room, 0, null, null);
+		return order;
+	}
+
+	@Override
+	public void createCustom(UUID orderId) {
+		record(CapturedOperation.CREATE_CUSTOM, orderId);
+		super.createCustom(orderId);
+	}
+
+	@Override
+	public void addIngredient(UUID orderId, PancakeIngredient ingredient) {
+		record(CapturedOperation.ADD_INGREDIENT, orderId, 0, 0, 0, ingredient, null);
+		super.addIngredient(orderId, ingredient);
+	}
+
+	@Override
+	public void finishCustom(UUID orderId) {
+		record(CapturedOperation.FINISH_CUSTOM, orderId);
+		super.finishCustom(orderId);
+	}
+
+	@Override
+	public void addDarkChocolatePancake(UUID orderId, int count) {
+		record(CapturedOperation.ADD_DARK_CHOCOLATE, orderId, 0, 0, count, null, null);
+		super.addDarkChocolatePancake(orderId, count);
+	}
+
+	@Override
+	public void addDarkChocolateWhippedCreamPancake(UUID orderId, int count) {
+		record(CapturedOperation.ADD_DARK_CHOCOLATE_WHIPPED_CREAM, orderId, 0, 0, count, null, null);
+		super.addDarkChocolateWhippedCreamPancake(orderId, count);
+	}
+
+	@Override
+	public void addDarkChocolateWhippedCreamHazelnutsPancake(UUID orderId, int count) {
+		record(CapturedOperation.ADD_DARK_CHOCOLATE_WHIPPED_CREAM_HAZELNUTS, orderId, 0, 0, count, null, null);
+		super.addDarkChocolateWhippedCreamHazelnutsPancake(orderId, count);
+	}
+
+	@Override
+	public void addMilkChocolatePancake(UUID orderId, int count) {
+		record(CapturedOperation.ADD_MILK_CHOCOLATE, orderId, 0, 0, count, null, null);
+		super.addMilkChocolatePancake(orderId, count);
+	}
+
+	@Override
+	public void addMilkChocolateHazelnutsPancake(UUID orderId, int count) {
+		record(CapturedOperation.ADD_MILK_CHOCOLATE_HAZELNUTS, orderId, 0, 0, count, null, null);
+		super.addMilkChocolateHazelnutsPancake(orderId, count);
+	}
+
+	@Override
+	public List<String> viewOrder(UUID orderId) {
+		record(CapturedOperation.VIEW_ORDER, orderId);
+		return super.viewOrder(orderId);
+	}
+
+	@Override
+	public void removePancakes(String description, UUID orderId, int count) {
+		record(CapturedOperation.REMOVE_PANCAKES, orderId, 0, 0, count, null, description);
+		super.removePancakes(description, orderId, count);
+	}
+
+	@Override
+	public void cancelOrder(UUID orderId) {
+		record(CapturedOperation.CANCEL_ORDER, orderId);
+		super.cancelOrder(orderId);
+	}
+
+	@Override
+	public void completeOrder(UUID orderId) {
+		record(CapturedOperation.COMPLETE_ORDER, orderId);
+		super.completeOrder(orderId);
+	}
+
+	@Override
+	public Set<UUID> listCompletedOrders() {
+		record(CapturedOperation.LIST_COMPLETED_ORDERS, null);
+		return super.listCompletedOrders();
+	}
+
+	@Override
+	public void prepareOrder(UUID orderId) {
+		record(CapturedOperation.PREPARE_ORDER, orderId);
+		super.prepareOrder(orderId);
+	}
+
+	@Override
+	public Set<UUID> listPreparedOrders() {
+		record(CapturedOperation.LIST_PREPARED_ORDERS, null);
+		return super.listPreparedOrders();
+	}
+
+	@Override
+	public DeliverOrder deliverOrder(UUID orderId) {
+		record(CapturedOperation.DELIVER_ORDER, orderId);
+		return super.deliverOrder(orderId);
+	}
+
+	private void record(CapturedOperation operation, UUID orderId) {
+		record(operation, orderId, 0, 0, 0, null, null);
+	}
+
+	private void record(CapturedOperation operation, UUID orderId, int building, int room, int count, PancakeIngredient ingredient, String description) {
+		var current = capture;
+		if (current != null) {
+			var now = System.nanoTime();
+			current.writer.append(new CapturedCall(current.sequence.getAndIncrement(), now - current.startNanos, Thread.currentThread().getId(), operation,
+					orderId, building, room, count, ingredient, description));
+		}
+	}
+
+	/**
+	 * Running capture
+	 */
+	private static class Capture {
+		private final CaptureWriter writer;
+		private final long startNanos;
+		private final AtomicLong sequence = new AtomicLong();
+
+		private Capture(CaptureWriter writer, long startNanos) {
+			this.writer = writer;
+			this.startNanos = startNanos;
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+package org.pancakelab.service.capture;
+
+import java.util.Map;
+
+import org.pancakelab.service.metrics.LatencyHistogram;
+
+/**
+ * Outcome of a replay
+ *
+ * @param calls         number of replayed calls
+ * @param errors        calls that threw
+ * @param elapsedNanos  wall time of the replay
+ * @param latencies     service time by operation
+ * @param responseTimes time from when each call was due to its end, by
+ *                      operation
+ */
+public record ReplayReport(long calls, long errors, long elapsedNanos, Map<CapturedOperation, LatencyHistogram> latencies,
+		Map<CapturedOperation, LatencyHistogram> responseTimes) {
+
+	/**
+	 * Returns the replayed calls per second
+	 *
+	 * @return
+	 */
+	public double throughput() {
+		return elapsedNanos == 0 ? 0 : calls * 1_000_000_000d / elapsedNanos;
+	}
+
+	/**
+	 * Returns the service time of every operation
+	 *
+	 * @return
+	 */
+	public LatencyHistogram latency() {
+		return merge(latencies);
+	}
+
+	/**
+	 * Returns the response time of every operation
+	 *
+	 * @return
+	 */
+	public LatencyHistogram responseTime() {
+		return merge(responseTimes);
+	}
+
+	/**
+	 * Formats the report as a table
+	 *
+	 * @return
+	 */
+	public String format() {
+		var out = new StringBuilder();
+		out.append("%d calls, %d errors in %.1f ms, %.0f calls/s%n".formatted(calls, errors, elapsedNanos / 1_000_000d, throughput()));
+		table(out, "Service time (us)", latencies, latency());
+		table(out, "Response time (us)", responseTimes, responseTime());
+		return out.toString();
+	}
+
+	private static void table(StringBuilder out, String title, Map<CapturedOperation, LatencyHistogram> histograms, LatencyHistogram total) {
+		out.append(title).append('\n');
+		out.append("%-48s %10s %10s %10s %10s%n".formatted("operation", "count", "p50", "p99", "max"));
+		for (var entry : histograms.entrySet()) {
+			row(out, entry.getKey().name(), entry.getValue());
+		}
+		row(out, "total", total);
+	}
+
+	private static LatencyHistogram merge(Map<CapturedOperation, LatencyHistogram> histograms) {
+		var merged = new LatencyHistogram();
+		histograms.values().forEach(merged::add);
+		return merged;
+	}
+
+	private static void row(StringBuilder out, String label, LatencyHistogram histogram) {
+		if (histogram.count() > 0) {
+			out.append("%-48s %10d %10.1f %10.1f %10.1f%n".formatted(label, histogram.count(), histogram.quantile(0.5) / 1_000d,
+					histogram.quantile(0.99) / 1_000d, histogram.max() / 1_000d));
+		}
+	}
+
+}
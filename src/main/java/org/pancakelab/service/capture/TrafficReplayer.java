@@ -0,0 +1,156 @@
+package org.pancakelab.service.capture;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.pancakelab.service.OrderLog;
+import org.pancakelab.service.OrderService;
+import org.pancakelab.service.PancakeService;
+import org.pancakelab.service.metrics.LatencyHistogram;
+
+/**
+ * Plays a capture against a pancake service.
+ *
+ * Calls are split over the workers by order id, so the calls of an order run
+ * on one worker in their captured order while different orders run in
+ * parallel; calls without an order go by their captured thread. The split only
+ * depends on the capture, so the same capture gives the same load to every
+ * build. Captured order ids are mapped to the ids created by the replay.
+ *
+ * At a finite speed each call waits for its captured time divided by the
+ * speed, at {@link #MAX_SPEED} calls run back to back. Service times are
+ * measured from the start of each call. Response times are measured from the
+ * time the call was due, so a worker held up by a slow call charges the delay
+ * to the calls queued behind it instead of hiding it (coordinated omission); at
+ * {@link #MAX_SPEED} no call is due before it starts and both are the same.
+ */
+public class TrafficReplayer {
+
+	public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+	private final List<List<CapturedCall>> partitions = new ArrayList<>();
+	private final long calls;
+
+	public TrafficReplayer(List<CapturedCall> calls, int workers) {
+		if (workers <= 0) {
+			throw new IllegalArgumentException("workers must be positive");
+		}
+		for (int i = 0; i < workers; i++) {
+			partitions.add(new ArrayList<>());
+		}
+		for (var call : calls) {
+			var key = call.orderId() != null ? call.orderId().hashCode() : Long.hashCode(call.threadId());
+			partitions.get(Math.floorMod(key, workers)).add(call);
+		}
+		this.calls = calls.size();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 3) {
+			System.err.println("usage: TrafficReplayer <capture> [speed|max] [workers]");
+			System.exit(1);
+		}
+		var speed = args.length > 1 && !args[1].equals("max") ? Double.parseDouble(args[1]) : MAX_SPEED;
+		var workers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		var replayer = new TrafficReplayer(CaptureReader.read(Path.of(args[0])), workers);
+		System.out.print(replayer.replay(new PancakeService(new OrderLog()), speed).format());
+	}
+
+	/**
+	 * Replays the capture and waits for every call
+	 *
+	 * @param target
+	 * @param speed  1 for the captured speed, or {@link #MAX_SPEED}
+	 * @return
+	 */
+	public ReplayReport replay(OrderService target, double speed) {
+		if (!(speed > 0)) {
+			throw new IllegalArgumentException("speed must be positive");
+		}
+		var latencies = histograms();
+		var responseTimes = histograms();
+		var ids = new ConcurrentHashMap<UUID, UUID>();
+		var errors = new LongAdder();
+		var threads = new ArrayList<Thread>();
+		var start = System.nanoTime();
+		for (int i = 0; i < partitions.size(); i++) {
+			var partition = partitions.get(i);
+			var thread = new Thread(() -> play(partition, target, speed, start, ids, latencies, responseTimes, errors), "replay-" + i);
+			threads.add(thread);
+			thread.start();
+		}
+		for (var thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Replay interrupted", e);
+			}
+		}
+		return new ReplayReport(calls, errors.sum(), System.nanoTime() - start, Collections.unmodifiableMap(latencies), Collections.unmodifiableMap(responseTimes));
+	}
+
+	private static Map<CapturedOperation, LatencyHistogram> histograms() {
+		var histograms = new EnumMap<CapturedOperation, LatencyHistogram>(CapturedOperation.class);
+		for (var operation : CapturedOperation.values()) {
+			histograms.put(operation, new LatencyHistogram());
+		}
+		return histograms;
+	}
+
+	private static void play(List<CapturedCall> partition, OrderService target, double speed, long start, Map<UUID, UUID> ids,
+			Map<CapturedOperation, LatencyHistogram> latencies, Map<CapturedOperation, LatencyHistogram> responseTimes, LongAdder errors) {
+		for (var call : partition) {
+			var due = 0L;
+			if (speed != MAX_SPEED) {
+				due = start + (long) (call.nanos() / speed);
+				for (var wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+					LockSupport.parkNanos(wait);
+				}
+			}
+			var callStart = System.nanoTime();
+			try {
+				invoke(call, target, ids);
+			} catch (RuntimeException e) {
+				errors.increment();
+			}
+			var end = System.nanoTime();
+			latencies.get(call.operation()).record(end - callStart);
+			responseTimes.get(call.operation()).record(end - (speed != MAX_SPEED ? due : callStart));
+		}
+	}
+
+	private static void invoke(CapturedCall call, OrderService target, Map<UUID, UUID> ids) {
+		// orders created before the capture keep their id and fail like unknown orders
+		var orderId = call.orderId() == null ? null : ids.getOrDefault(call.orderId(), call.orderId());
+		switch (call.operation()) {
+		case CREATE_ORDER -> ids.put(call.orderId(), target.createOrder(call.building(), call.room()).getId());
+		case CREATE_CUSTOM -> target.createCustom(orderId);
+		case ADD_INGREDIENT -> target.addIngredient(orderId, call.ingredient());
+		case FINISH_CUSTOM -> target.finishCustom(orderId);
+		case ADD_DARK_CHOCOLATE -> target.addDarkChocolatePancake(orderId, call.count());
+		case ADD_DARK_CHOCOLATE_WHIPPED_CREAM -> target.addDarkChocolateWhippedCreamPancake(orderId, call.count());
+		case ADD_DARK_CHOCOLATE_WHIPPED_CREAM_HAZELNUTS -> target.addDarkChocolateWhippedCreamHazelnutsPancake(orderId, call.count());
+		case ADD_MILK_CHOCOLATE -> target.addMilkChocolatePancake(orderId, call.count());
+		case ADD_MILK_CHOCOLATE_HAZELNUTS -> target.addMilkChocolateHazelnutsPancake(orderId, call.count());
+		case VIEW_ORDER -> target.viewOrder(orderId);
+		case REMOVE_PANCAKES -> target.removePancakes(call.description(), orderId, call.count());
+		case CANCEL_ORDER -> target.cancelOrder(orderId);
+		case COMPLETE_ORDER -> target.completeOrder(orderId);
+		case LIST_COMPLETED_ORDERS -> target.listCompletedOrders();
+		case PREPARE_ORDER -> target.prepareOrder(orderId);
+		case LIST_PREPARED_ORDERS -> target.listPreparedOrders();
+		case DELIVER_ORDER -> target.deliverOrder(orderId);
+		}
+	}
+
+}
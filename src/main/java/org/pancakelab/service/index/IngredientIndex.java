@@ -0,0 +1,168 @@
+package org.pancakelab.service.index;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.pancakelab.model.Order;
+import org.pancakelab.model.pancakes.PancakeIngredient;
+import org.pancakelab.model.pancakes.PancakeRecipe;
+import org.pancakelab.service.PancakeServiceListener;
+
+/**
+ * Inverted index from ingredient to the open orders that contain it.
+ *
+ * Each ingredient maps the order ids to the number of pancakes of the order
+ * that contain the ingredient. Added and finished custom pancakes increment
+ * the counts, removed pancakes decrement them and drop the order at zero, and
+ * cancelled or delivered orders are dropped from every ingredient. Callbacks
+ * of one order are serialized by the service, so only different orders update
+ * a map concurrently.
+ *
+ * Queries read the maps without locking and see every change completed before
+ * they started.
+ */
+public class IngredientIndex implements PancakeServiceListener {
+
+	private final Map<PancakeIngredient, Map<UUID, Integer>> orders = new EnumMap<>(PancakeIngredient.class);
+
+	public IngredientIndex() {
+		for (var ingredient : PancakeIngredient.values()) {
+			orders.put(ingredient, new ConcurrentHashMap<>());
+		}
+	}
+
+	@Override
+	public void pancakesAdded(Order order, List<PancakeRecipe> added) {
+		increment(order.getId(), added);
+	}
+
+	@Override
+	public void pancakesRemoved(Order order, List<PancakeRecipe> removed) {
+		decrement(order.getId(), removed);
+	}
+
+	@Override
+	public void orderDelivered(Order order, List<PancakeRecipe> pancakes) {
+		drop(order.getId());
+	}
+
+	@Override
+	public void orderCancelled(Order order, List<PancakeRecipe> pancakes) {
+		drop(order.getId());
+	}
+
+	@Override
+	public void ordersReset() {
+		orders.values().forEach(Map::clear);
+	}
+
+	/**
+	 * Returns the open orders with the ingredient
+	 *
+	 * @param ingredient
+	 * @return
+	 */
+	public Set<UUID> ordersWith(PancakeIngredient ingredient) {
+		return Set.copyOf(orders.get(ingredient).keySet());
+	}
+
+	/**
+	 * Returns the number of pancakes with the ingredient in the order
+	 *
+	 * @param ingredient
+	 * @param orderId
+	 * @return
+	 */
+	public int count(PancakeIngredient ingredient, UUID orderId) {
+		return orders.get(ingredient).getOrDefault(orderId, 0);
+	}
+
+	/**
+	 * Returns the open orders with at least one of the ingredients
+	 *
+	 * @param ingredients
+	 * @return
+	 */
+	public Set<UUID> ordersWithAny(Collection<PancakeIngredient> ingredients) {
+		var result = new HashSet<UUID>();
+		if (ingredients.isEmpty()) {
+			return result;
+		}
+		for (var ingredient : EnumSet.copyOf(ingredients)) {
+			result.addAll(orders.get(ingredient).keySet());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the open orders with every one of the ingredients, which may be in
+	 * different pancakes
+	 *
+	 * @param ingredients
+	 * @return
+	 */
+	public Set<UUID> ordersWithAll(Collection<PancakeIngredient> ingredients) {
+		if (ingredients.isEmpty()) {
+			return new HashSet<>();
+		}
+		var selected = EnumSet.copyOf(ingredients);
+		var smallest = selected.iterator().next();
+		for (var ingredient : selected) {
+			if (orders.get(ingredient).size() < orders.get(smallest).size()) {
+				smallest = ingredient;
+			}
+		}
+		selected.remove(smallest);
+		var result = new HashSet<UUID>();
+		candidates: for (var orderId : orders.get(smallest).keySet()) {
+			for (var ingredient : selected) {
+				if (!orders.get(ingredient).containsKey(orderId)) {
+					continue candidates;
+				}
+			}
+			result.add(orderId);
+		}
+		return result;
+	}
+
+	private void increment(UUID orderId, List<PancakeRecipe> pancakes) {
+		for (var pancake : pancakes) {
+			for (var ingredient : ingredients(pancake)) {
+				orders.get(ingredient).merge(orderId, 1, Integer::sum);
+			}
+		}
+	}
+
+	private void decrement(UUID orderId, List<PancakeRecipe> pancakes) {
+		for (var pancake : pancakes) {
+			for (var ingredient : ingredients(pancake)) {
+				orders.get(ingredient).computeIfPresent(orderId, (id, count) -> count > 1 ? count - 1 : null);
+			}
+		}
+	}
+
+	private void drop(UUID orderId) {
+		for (var ids : orders.values()) {
+			ids.remove(orderId);
+		}
+	}
+
+	private static Set<PancakeIngredient> ingredients(PancakeRecipe pancake) {
+		var result = EnumSet.noneOf(PancakeIngredient.class);
+		for (var title : pancake.ingredients()) {
+			var ingredient = PancakeIngredient.fromTitle(title);
+			if (ingredient != null) {
+				result.add(ingredient);
+			}
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,8 @@
+package org.pancakelab.service.jfr;
+
+/**
+ * Latency and contention of one operation in a recording
+ */
+public record OperationSummary(String event, String operation, long count, long failures, long p50Nanos, long p99Nanos, long maxNanos,
+		long totalLockWaitNanos, long maxLockWaitNanos) {
+}
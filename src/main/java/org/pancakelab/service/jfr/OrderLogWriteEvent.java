@@ -0,0 +1,96 @@
+package org.pancakelab.service.jfr;
+
+import java.util.UUID;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for a line written to the order log. Disabled by
+ * default, like {@link PancakeOperationEvent}
+ */
+@Name(OrderLogWriteEvent.NAME)
+@Label("Order Log Write")
+@Category("PancakeLab")
+@Description("Line written to the order log")
+@Enabled(false)
+@StackTrace(false)
+public class OrderLogWriteEvent extends Event {
+
+	public static final String NAME = "org.pancakelab.OrderLogWrite";
+
+	@Label("Operation")
+	public String operation;
+
+	@Label("Order Id")
+	public String orderId;
+
+	@Label("Building")
+	public int building;
+
+	@Label("Pancake Count")
+	public int pancakeCount;
+
+	@Label("Lock Wait")
+	@Timespan(Timespan.NANOSECONDS)
+	public long lockWait;
+
+	@Label("Outcome")
+	public String outcome;
+
+	private transient long waitStart;
+
+	/**
+	 * Starts the event of a log write
+	 *
+	 * @param operation
+	 * @param orderId
+	 * @param building
+	 * @param pancakeCount
+	 * @return
+	 */
+	public static OrderLogWriteEvent begin(String operation, UUID orderId, int building, int pancakeCount) {
+		var event = new OrderLogWriteEvent();
+		if (event.isEnabled()) {
+			event.operation = operation;
+			event.orderId = orderId.toString();
+			event.building = building;
+			event.pancakeCount = pancakeCount;
+			event.outcome = "failed";
+			event.begin();
+			event.waitStart = System.nanoTime();
+		}
+		return event;
+	}
+
+	/**
+	 * Marks the moment the log lock is acquired
+	 */
+	public void locked() {
+		if (isEnabled()) {
+			lockWait = System.nanoTime() - waitStart;
+		}
+	}
+
+	/**
+	 * Ends and commits the event, with the outcome of the write
+	 *
+	 * @param written
+	 */
+	public void finish(boolean written) {
+		if (isEnabled()) {
+			outcome = written ? "ok" : "failed";
+			end();
+			if (shouldCommit()) {
+				commit();
+			}
+		}
+	}
+
+}
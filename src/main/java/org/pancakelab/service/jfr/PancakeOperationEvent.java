@@ -0,0 +1,145 @@
+package org.pancakelab.service.jfr;
+
+import java.util.UUID;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for a public operation of the pancake service.
+ *
+ * Disabled by default. When disabled every method returns after the
+ * {@link #isEnabled()} check, which the JIT folds to a constant, so the event
+ * costs nothing.
+ */
+@Name(PancakeOperationEvent.NAME)
+@Label("Pancake Operation")
+@Category("PancakeLab")
+@Description("Public operation of the pancake service")
+@Enabled(false)
+@StackTrace(false)
+public class PancakeOperationEvent extends Event {
+
+	public static final String NAME = "org.pancakelab.PancakeOperation";
+
+	@Label("Operation")
+	public String operation;
+
+	@Label("Order Id")
+	public String orderId;
+
+	@Label("Building")
+	public int building;
+
+	@Label("Pancake Count")
+	public int pancakeCount;
+
+	@Label("Lock Wait")
+	@Timespan(Timespan.NANOSECONDS)
+	public long lockWait;
+
+	@Label("Outcome")
+	public String outcome;
+
+	private transient long waitStart;
+
+	/**
+	 * Starts the event of an operation
+	 *
+	 * @param operation
+	 * @param orderId
+	 * @return
+	 */
+	public static PancakeOperationEvent begin(String operation, UUID orderId) {
+		var event = new PancakeOperationEvent();
+		if (event.isEnabled()) {
+			event.operation = operation;
+			event.orderId = orderId == null ? null : orderId.toString();
+			event.outcome = "failed";
+			event.begin();
+		}
+		return event;
+	}
+
+	/**
+	 * Marks the moment the operation starts waiting for a lock
+	 */
+	public void waitLock() {
+		if (isEnabled()) {
+			waitStart = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Marks the moment the lock is acquired
+	 */
+	public void locked() {
+		if (isEnabled()) {
+			lockWait += System.nanoTime() - waitStart;
+		}
+	}
+
+	/**
+	 * Marks the moment the lock of the order is acquired
+	 *
+	 * @param building
+	 */
+	public void locked(int building) {
+		if (isEnabled()) {
+			this.building = building;
+			locked();
+		}
+	}
+
+	/**
+	 * Records the building of an operation that takes no lock
+	 *
+	 * @param building
+	 */
+	public void forBuilding(int building) {
+		if (isEnabled()) {
+			this.building = building;
+		}
+	}
+
+	/**
+	 * Records a successful outcome
+	 *
+	 * @param pancakeCount
+	 */
+	public void succeeded(int pancakeCount) {
+		outcome("ok", pancakeCount);
+	}
+
+	/**
+	 * Records the outcome of the operation
+	 *
+	 * @param outcome
+	 * @param pancakeCount
+	 */
+	public void outcome(String outcome, int pancakeCount) {
+		if (isEnabled()) {
+			this.outcome = outcome;
+			this.pancakeCount = pancakeCount;
+		}
+	}
+
+	/**
+	 * Ends and commits the event, with a failed outcome unless another was set
+	 */
+	public void finish() {
+		if (isEnabled()) {
+			end();
+			if (shouldCommit()) {
+				commit();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,114 @@
+package org.pancakelab.service.jfr;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.pancakelab.service.metrics.LatencyHistogram;
+
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Summarizes a Flight Recorder recording into per-operation latency and
+ * contention tables. Run it with the recording file as argument
+ */
+public class RecordingAnalyzer {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("usage: RecordingAnalyzer <recording.jfr>");
+			System.exit(1);
+		}
+		System.out.print(format(analyze(Path.of(args[0]))));
+	}
+
+	/**
+	 * Reads the PancakeLab events of a recording, grouped by event and operation
+	 *
+	 * @param recording
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<OperationSummary> analyze(Path recording) throws IOException {
+		var groups = new TreeMap<String, Group>();
+		try (var file = new RecordingFile(recording)) {
+			while (file.hasMoreEvents()) {
+				var event = file.readEvent();
+				var name = event.getEventType().getName();
+				if (!name.equals(PancakeOperationEvent.NAME) && !name.equals(OrderLogWriteEvent.NAME)) {
+					continue;
+				}
+				var operation = event.getString("operation");
+				var group = groups.computeIfAbsent(name + "/" + operation, key -> new Group(name, operation));
+				group.latency.record(event.getDuration().toNanos());
+				var lockWait = event.getLong("lockWait");
+				group.totalLockWait += lockWait;
+				group.maxLockWait = Math.max(group.maxLockWait, lockWait);
+				if ("failed".equals(event.getString("outcome"))) {
+					group.failures++;
+				}
+			}
+		}
+		var summaries = new ArrayList<OperationSummary>();
+		for (var group : groups.values()) {
+			summaries.add(new OperationSummary(group.event, group.operation, group.latency.count(), group.failures, group.latency.quantile(0.5),
+					group.latency.quantile(0.99), group.latency.max(), group.totalLockWait, group.maxLockWait));
+		}
+		return summaries;
+	}
+
+	/**
+	 * Formats the latency table followed by the contention table
+	 *
+	 * @param summaries
+	 * @return
+	 */
+	public static String format(List<OperationSummary> summaries) {
+		var out = new StringBuilder();
+		out.append("Latency (us)\n");
+		out.append("%-48s %10s %8s %10s %10s %10s%n".formatted("operation", "count", "failed", "p50", "p99", "max"));
+		for (var summary : summaries) {
+			out.append("%-48s %10d %8d %10.1f %10.1f %10.1f%n".formatted(label(summary), summary.count(), summary.failures(), micros(summary.p50Nanos()),
+					micros(summary.p99Nanos()), micros(summary.maxNanos())));
+		}
+		out.append("\nContention (us)\n");
+		out.append("%-48s %14s %10s %10s%n".formatted("operation", "total wait", "avg wait", "max wait"));
+		var byWait = new ArrayList<>(summaries);
+		byWait.sort((a, b) -> Long.compare(b.totalLockWaitNanos(), a.totalLockWaitNanos()));
+		for (var summary : byWait) {
+			var average = summary.count() == 0 ? 0 : summary.totalLockWaitNanos() / summary.count();
+			out.append("%-48s %14.1f %10.1f %10.1f%n".formatted(label(summary), micros(summary.totalLockWaitNanos()), micros(average),
+					micros(summary.maxLockWaitNanos())));
+		}
+		return out.toString();
+	}
+
+	private static String label(OperationSummary summary) {
+		var prefix = summary.event().equals(OrderLogWriteEvent.NAME) ? "log." : "";
+		return prefix + summary.operation();
+	}
+
+	private static double micros(long nanos) {
+		return nanos / 1_000d;
+	}
+
+	/**
+	 * Accumulator of the events of one operation
+	 */
+	private static class Group {
+		private final String event;
+		private final String operation;
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private long failures;
+		private long totalLockWait;
+		private long maxLockWait;
+
+		private Group(String event, String operation) {
+			this.event = event;
+			this.operation = operation;
+		}
+	}
+
+}
@@ -0,0 +1,510 @@
+package org.pancakelab.service.log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.pancakelab.service.OrderLogSink;
+
+/**
+ * Order log sink writing to segment files in a directory.
+ *
+ * Lines are written through a buffered file channel to the active segment,
+ * prefixed by the order id. The segment is rotated when it reaches the maximum
+ * size or age; on rotation a sparse index with the span of each order, from the
+ * start of its first line to the end of its last one, is written next to it,
+ * sorted by order id, and the segment is gzipped in the background. Only the
+ * spans of the active segment are kept in memory, one per order, and only the
+ * newest {@code maxSegments} closed segments are kept on disk, so neither
+ * memory nor disk use grows with the age of the process.
+ *
+ * The history of an order copies its span of the active segment under the
+ * monitor, then binary searches the index of each closed segment and reads
+ * only the span of the order, keeping its lines, without blocking writers. A
+ * failure to compress or expire a segment in the background is thrown by the
+ * next write or by close.
+ *
+ * <pre>
+ * index: int orders
+ *        orders x (long msb, long lsb, long start, long end), sorted by id
+ * </pre>
+ */
+public class RollingFileOrderLogSink implements OrderLogSink, Closeable {
+
+	private static final String PREFIX = "orders-";
+	private static final String LOG = ".log";
+	private static final String GZIP = ".log.gz";
+	private static final String INDEX = ".idx";
+	private static final int ENTRY_BYTES = 32;
+	private static final Comparator<UUID> BY_ID = Comparator.comparingLong(UUID::getMostSignificantBits).thenComparingLong(UUID::getLeastSignificantBits);
+
+	public static final int DEFAULT_MAX_SEGMENTS = 1024;
+
+	private final Path directory;
+	private final long maxSegmentBytes;
+	private final long maxSegmentNanos;
+	private final int maxSegments;
+	private final ByteBuffer buffer;
+	private final ExecutorService compressor = Executors.newSingleThreadExecutor(runnable -> {
+		var thread = new Thread(runnable, "order-log-compressor");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final AtomicReference<IOException> failure = new AtomicReference<>();
+	private final Map<UUID, Span> index = new HashMap<>();
+	private FileChannel channel;
+	private long segment;
+	private long position;
+	private long openedAt;
+
+	public RollingFileOrderLogSink(Path directory, long maxSegmentBytes, Duration maxSegmentAge) {
+		this(directory, maxSegmentBytes, maxSegmentAge, 64 * 1024);
+	}
+
+	public RollingFileOrderLogSink(Path directory, long maxSegmentBytes, Duration maxSegmentAge, int bufferSize) {
+		this(directory, maxSegmentBytes, maxSegmentAge, bufferSize, DEFAULT_MAX_SEGMENTS);
+	}
+
+	public RollingFileOrderLogSink(Path directory, long maxSegmentBytes, Duration maxSegmentAge, int bufferSize, int maxSegments) {
+		if (maxSegmentBytes <= 0 || bufferSize <= 0 || maxSegments <= 0) {
+			throw new IllegalArgumentException("segment and buffer sizes and retained segments must be positive");
+		}
+		this.directory = directory;
+		this.maxSegmentBytes = maxSegmentBytes;
+		this.maxSegmentNanos = maxSegmentAge.toNanos();
+		this.maxSegments = maxSegments;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+		try {
+			Files.createDirectories(directory);
+			var last = recover();
+			compressor.execute(() -> expire(last));
+			segment = last + 1;
+			open();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes the line, then throws the failure of a background compression or
+	 * expiry if one happened since the last check
+	 */
+	@Override
+	public synchronized void write(UUID orderId, String line) {
+		checkOpen();
+		var bytes = (orderId + " " + line + "\n").getBytes(StandardCharsets.UTF_8);
+		try {
+			if (position > 0 && (position + bytes.length > maxSegmentBytes || System.nanoTime() - openedAt >= maxSegmentNanos)) {
+				rotate();
+			}
+			index.computeIfAbsent(orderId, id -> new Span(position)).end = position + bytes.length;
+			if (bytes.length > buffer.remaining()) {
+				flushBuffer();
+			}
+			if (bytes.length > buffer.capacity()) {
+				writeFully(ByteBuffer.wrap(bytes));
+			} else {
+				buffer.put(bytes);
+			}
+			position += bytes.length;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		checkFailure();
+	}
+
+	@Override
+	public List<String> history(UUID orderId) {
+		long active;
+		Span activeSpan;
+		synchronized (this) {
+			try {
+				flushBuffer();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			// once closed, the last segment is indexed like the others
+			active = channel == null ? Long.MAX_VALUE : segment;
+			var current = index.get(orderId);
+			activeSpan = current == null ? null : current.copy();
+		}
+		var lines = new ArrayList<String>();
+		try {
+			for (var closed : closedSegments().headSet(active)) {
+				try {
+					var found = findSpan(closed, orderId);
+					if (found != null) {
+						readSpan(closed, orderId, found, lines);
+					}
+				} catch (NoSuchFileException e) {
+					// expired while reading
+				}
+			}
+			if (activeSpan != null) {
+				readSpan(active, orderId, activeSpan, lines);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return lines;
+	}
+
+	/**
+	 * Writes the buffered lines to the active segment
+	 */
+	public synchronized void flush() {
+		checkOpen();
+		try {
+			flushBuffer();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Closes the active segment and waits for the pending compressions, throwing
+	 * the failure of one if any
+	 */
+	@Override
+	public synchronized void close() {
+		if (channel == null) {
+			return;
+		}
+		try {
+			if (channel != null && position == 0) {
+				channel.close();
+				Files.delete(path(segment, LOG));
+			} else if (channel != null) {
+				closeSegment();
+			}
+			channel = null;
+			compressor.shutdown();
+			compressor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		checkFailure();
+	}
+
+	private void checkOpen() {
+		if (channel == null) {
+			throw new IllegalStateException("order log sink closed");
+		}
+	}
+
+	private void checkFailure() {
+		var failed = failure.getAndSet(null);
+		if (failed != null) {
+			throw new UncheckedIOException(failed);
+		}
+	}
+
+	private void rotate() throws IOException {
+		closeSegment();
+		segment++;
+		open();
+	}
+
+	private void open() throws IOException {
+		channel = FileChannel.open(path(segment, LOG), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		position = 0;
+		openedAt = System.nanoTime();
+	}
+
+	private void closeSegment() throws IOException {
+		flushBuffer();
+		channel.close();
+		writeIndex(segment, index);
+		index.clear();
+		var closed = segment;
+		compressor.execute(() -> {
+			compress(closed);
+			expire(closed);
+		});
+	}
+
+	private void flushBuffer() throws IOException {
+		buffer.flip();
+		writeFully(buffer);
+		buffer.clear();
+	}
+
+	private void writeFully(ByteBuffer bytes) throws IOException {
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+	}
+
+	/**
+	 * Gzips a closed segment, replacing the plain file. On failure the plain
+	 * file is kept and stays readable
+	 *
+	 * @param closed
+	 */
+	private void compress(long closed) {
+		var source = path(closed, LOG);
+		var target = path(closed, GZIP);
+		var temporary = directory.resolve(target.getFileName() + ".tmp");
+		try {
+			try (var in = Files.newInputStream(source); var out = new GZIPOutputStream(Files.newOutputStream(temporary))) {
+				in.transferTo(out);
+			}
+			Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+			Files.delete(source);
+		} catch (IOException e) {
+			failure.compareAndSet(null, e);
+		}
+	}
+
+	/**
+	 * Deletes the closed segments older than the retained ones, index first so
+	 * that readers stop looking at them
+	 *
+	 * @param newest
+	 */
+	private void expire(long newest) {
+		try {
+			for (var old : closedSegments().headSet(newest - maxSegments, true)) {
+				Files.deleteIfExists(path(old, INDEX));
+				Files.deleteIfExists(path(old, GZIP));
+				Files.deleteIfExists(path(old, LOG));
+			}
+		} catch (IOException e) {
+			failure.compareAndSet(null, e);
+		}
+	}
+
+	/**
+	 * Indexes and compresses segments left by a previous run, returning the last
+	 * segment number
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	private long recover() throws IOException {
+		var last = 0L;
+		try (var files = Files.list(directory)) {
+			for (var file : (Iterable<Path>) files::iterator) {
+				var name = file.getFileName().toString();
+				if (name.startsWith(PREFIX) && name.endsWith(LOG)) {
+					var leftover = Long.parseLong(name.substring(PREFIX.length(), name.length() - LOG.length()));
+					if (!Files.exists(path(leftover, INDEX))) {
+						writeIndex(leftover, scan(leftover));
+					}
+					if (Files.exists(path(leftover, GZIP))) {
+						Files.delete(file);
+					} else {
+						compressor.execute(() -> compress(leftover));
+					}
+					last = Math.max(last, leftover);
+				}
+				if (name.startsWith(PREFIX) && (name.endsWith(INDEX) || name.endsWith(GZIP))) {
+					last = Math.max(last, Long.parseLong(name.substring(PREFIX.length(), name.indexOf('.'))));
+				}
+			}
+		}
+		return last;
+	}
+
+	/**
+	 * Rebuilds the index of a plain segment
+	 *
+	 * @param leftover
+	 * @return
+	 * @throws IOException
+	 */
+	private Map<UUID, Span> scan(long leftover) throws IOException {
+		var found = new HashMap<UUID, Span>();
+		var offset = 0L;
+		try (var reader = Files.newBufferedReader(path(leftover, LOG), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				var length = line.getBytes(StandardCharsets.UTF_8).length + 1;
+				var separator = line.indexOf(' ');
+				if (separator > 0) {
+					var start = offset;
+					found.computeIfAbsent(UUID.fromString(line.substring(0, separator)), id -> new Span(start)).end = offset + length;
+				}
+				offset += length;
+			}
+		}
+		return found;
+	}
+
+	private void writeIndex(long closed, Map<UUID, Span> spans) throws IOException {
+		var ids = new ArrayList<>(spans.keySet());
+		ids.sort(BY_ID);
+		var out = ByteBuffer.allocate(Integer.BYTES + ids.size() * ENTRY_BYTES);
+		out.putInt(ids.size());
+		for (var id : ids) {
+			var span = spans.get(id);
+			out.putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits()).putLong(span.start).putLong(span.end);
+		}
+		var temporary = directory.resolve(path(closed, INDEX).getFileName() + ".tmp");
+		try (var file = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			out.flip();
+			while (out.hasRemaining()) {
+				file.write(out);
+			}
+		}
+		Files.move(temporary, path(closed, INDEX), StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Binary searches the index of a closed segment for the span of the order,
+	 * or returns null when the segment does not contain the order
+	 *
+	 * @param closed
+	 * @param orderId
+	 * @return
+	 * @throws IOException
+	 */
+	private Span findSpan(long closed, UUID orderId) throws IOException {
+		try (var file = FileChannel.open(path(closed, INDEX), StandardOpenOption.READ)) {
+			var low = 0;
+			var high = read(file, 0, Integer.BYTES).getInt() - 1;
+			while (low <= high) {
+				var middle = (low + high) >>> 1;
+				var entry = read(file, Integer.BYTES + (long) middle * ENTRY_BYTES, ENTRY_BYTES);
+				var compared = BY_ID.compare(new UUID(entry.getLong(), entry.getLong()), orderId);
+				if (compared < 0) {
+					low = middle + 1;
+				} else if (compared > 0) {
+					high = middle - 1;
+				} else {
+					var span = new Span(entry.getLong());
+					span.end = entry.getLong();
+					return span;
+				}
+			}
+			return null;
+		}
+	}
+
+	private static ByteBuffer read(FileChannel file, long offset, int length) throws IOException {
+		var bytes = ByteBuffer.allocate(length);
+		while (bytes.hasRemaining()) {
+			if (file.read(bytes, offset + bytes.position()) < 0) {
+				throw new IOException("truncated index");
+			}
+		}
+		return bytes.flip();
+	}
+
+	/**
+	 * Reads the span of the order, skipping the bytes before it and keeping the
+	 * lines of the order
+	 *
+	 * @param number
+	 * @param orderId
+	 * @param span
+	 * @param lines
+	 * @throws IOException
+	 */
+	private void readSpan(long number, UUID orderId, Span span, List<String> lines) throws IOException {
+		var prefix = (orderId + " ").getBytes(StandardCharsets.UTF_8);
+		var line = new byte[256];
+		var length = 0;
+		try (var in = new BufferedInputStream(openSegment(number))) {
+			in.skipNBytes(span.start);
+			for (var remaining = span.end - span.start; remaining > 0; remaining--) {
+				var next = in.read();
+				if (next < 0) {
+					throw new EOFException("truncated segment");
+				}
+				if (next != '\n') {
+					if (length == line.length) {
+						line = Arrays.copyOf(line, length * 2);
+					}
+					line[length++] = (byte) next;
+					continue;
+				}
+				if (length >= prefix.length && Arrays.equals(line, 0, prefix.length, prefix, 0, prefix.length)) {
+					lines.add(new String(line, prefix.length, length - prefix.length, StandardCharsets.UTF_8));
+				}
+				length = 0;
+			}
+		}
+	}
+
+	/**
+	 * Opens a segment, plain or compressed. The plain file is only deleted after
+	 * the compressed one is in place, so it is tried first
+	 *
+	 * @param number
+	 * @return
+	 * @throws IOException
+	 */
+	private InputStream openSegment(long number) throws IOException {
+		try {
+			return Files.newInputStream(path(number, LOG));
+		} catch (NoSuchFileException e) {
+			return new GZIPInputStream(Files.newInputStream(path(number, GZIP)));
+		}
+	}
+
+	private TreeSet<Long> closedSegments() throws IOException {
+		var segments = new TreeSet<Long>();
+		try (var files = Files.list(directory)) {
+			files.map(file -> file.getFileName().toString()) //
+					.filter(name -> name.startsWith(PREFIX) && name.endsWith(INDEX)) //
+					.forEach(name -> segments.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - INDEX.length()))));
+		}
+		return segments;
+	}
+
+	private Path path(long number, String suffix) {
+		return directory.resolve("%s%010d%s".formatted(PREFIX, number, suffix));
+	}
+
+	/**
+	 * Bytes of a segment from the start of the first line of an order to the end
+	 * of its last one
+	 */
+	private static class Span {
+
+		private final long start;
+		private long end;
+
+		private Span(long start) {
+			this.start = start;
+		}
+
+		private Span copy() {
+			var copy = new Span(start);
+			copy.end = end;
+			return copy;
+		}
+
+	}
+
+}
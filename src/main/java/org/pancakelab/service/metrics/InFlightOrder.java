@@ -0,0 +1,9 @@
+package org.pancakelab.service.metrics;
+
+import java.util.UUID;
+
+/**
+ * Order not yet delivered or cancelled, with the time since its creation
+ */
+public record InFlightOrder(UUID orderId, int building, long ageNanos) {
+}
@@ -0,0 +1,105 @@
+package org.pancakelab.service.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of durations in nanoseconds. Each power of two
+ * is split in eight buckets, so quantiles are within 12.5% of the real value
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Records a duration, negative values count as zero
+	 *
+	 * @param nanos
+	 */
+	public void record(long nanos) {
+		var value = Math.max(0, nanos);
+		counts.incrementAndGet(index(value));
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * Adds the values of another histogram
+	 *
+	 * @param other
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < counts.length(); i++) {
+			var value = other.counts.get(i);
+			if (value != 0) {
+				counts.addAndGet(i, value);
+			}
+		}
+		count.add(other.count.sum());
+		sum.add(other.sum.sum());
+		max.accumulate(other.max.get());
+	}
+
+	public long count() {
+		return count.sum();
+	}
+
+	public long max() {
+		return max.get();
+	}
+
+	public double mean() {
+		var total = count.sum();
+		return total == 0 ? 0 : (double) sum.sum() / total;
+	}
+
+	/**
+	 * Returns the upper bound of the bucket holding the quantile
+	 *
+	 * @param quantile between 0 and 1
+	 * @return
+	 */
+	public long quantile(double quantile) {
+		var total = count.sum();
+		if (total == 0) {
+			return 0;
+		}
+		var rank = Math.max(1, (long) Math.ceil(quantile * total));
+		var seen = 0L;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	private static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		var magnitude = 63 - Long.numberOfLeadingZeros(value);
+		var sub = (int) (value >>> (magnitude - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (magnitude - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long upperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		var magnitude = index / SUB_BUCKETS + SUB_BITS - 1;
+		var sub = index % SUB_BUCKETS;
+		var lower = (1L << magnitude) + ((long) sub << (magnitude - SUB_BITS));
+		return lower + (1L << (magnitude - SUB_BITS)) - 1;
+	}
+
+}
@@ -0,0 +1,17 @@
+package org.pancakelab.service.metrics;
+
+/**
+ * Timed stages of an order. Each stage measures the time since the previous
+ * transition of the order, except {@link #END_TO_END}, which measures from
+ * creation to delivery
+ */
+public enum LifecycleStage {
+
+	FIRST_PANCAKE, //
+	COMPLETED, //
+	PREPARED, //
+	DELIVERED, //
+	CANCELLED, //
+	END_TO_END;
+
+}
@@ -0,0 +1,236 @@
+package org.pancakelab.service.metrics;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.pancakelab.model.Order;
+import org.pancakelab.model.pancakes.PancakeRecipe;
+import org.pancakelab.service.PancakeServiceListener;
+
+/**
+ * Times the lifecycle of the orders of a service.
+ *
+ * Each in-flight order keeps its monotonic creation time and a small array
+ * with the time of each {@link LifecycleStage} it went through. Every
+ * transition feeds the time since the previous one into the histogram of its
+ * stage and building, and deliveries also feed the end-to-end time and the SLA
+ * breach counter. Listener callbacks of one order may run on different threads
+ * and outside the order lock, so a transition reads and updates the timestamps
+ * of the order under its own monitor, records each stage once and ignores the
+ * ones arriving after the order was delivered or cancelled.
+ *
+ * In-flight orders are also kept sorted by creation time, so the slowest ones
+ * are the first of the set and are read without visiting the others.
+ */
+public class OrderLifecycleTracker implements PancakeServiceListener {
+
+	private static final int FINISHED = 1 << LifecycleStage.DELIVERED.ordinal() | 1 << LifecycleStage.CANCELLED.ordinal();
+	private static final Comparator<Timing> BY_CREATION = Comparator.comparingLong((Timing timing) -> timing.createdAt) //
+			.thenComparing(timing -> timing.orderId);
+
+	private final LongSupplier clock;
+	private final long slaNanos;
+	private final Map<UUID, Timing> inFlight = new ConcurrentHashMap<>();
+	private final ConcurrentSkipListSet<Timing> byCreation = new ConcurrentSkipListSet<>(BY_CREATION);
+	private final Map<Integer, Map<LifecycleStage, LatencyHistogram>> histograms = new ConcurrentHashMap<>();
+	private final LongAdder slaBreaches = new LongAdder();
+
+	public OrderLifecycleTracker(Duration sla) {
+		this(sla, System::nanoTime);
+	}
+
+	public OrderLifecycleTracker(Duration sla, LongSupplier clock) {
+		this.slaNanos = sla.toNanos();
+		this.clock = clock;
+	}
+
+	@Override
+	public void orderCreated(Order order) {
+		var timing = new Timing(order.getId(), order.getBuilding(), clock.getAsLong());
+		inFlight.put(order.getId(), timing);
+		byCreation.add(timing);
+	}
+
+	@Override
+	public void pancakesAdded(Order order, List<PancakeRecipe> added) {
+		var timing = inFlight.get(order.getId());
+		if (timing != null) {
+			transition(timing, LifecycleStage.FIRST_PANCAKE);
+		}
+	}
+
+	@Override
+	public void orderCompleted(UUID orderId) {
+		var timing = inFlight.get(orderId);
+		if (timing != null) {
+			transition(timing, LifecycleStage.COMPLETED);
+		}
+	}
+
+	@Override
+	public void orderPrepared(Order order) {
+		var timing = inFlight.get(order.getId());
+		if (timing != null) {
+			transition(timing, LifecycleStage.PREPARED);
+		}
+	}
+
+	@Override
+	public void orderDelivered(Order order, List<PancakeRecipe> pancakes) {
+		var timing = finish(order.getId());
+		if (timing != null && transition(timing, LifecycleStage.DELIVERED)) {
+			var total = timing.stamps[LifecycleStage.DELIVERED.ordinal()] - timing.createdAt;
+			recorder(timing.building, LifecycleStage.END_TO_END).record(total);
+			if (total > slaNanos) {
+				slaBreaches.increment();
+			}
+		}
+	}
+
+	@Override
+	public void orderCancelled(Order order, List<PancakeRecipe> pancakes) {
+		var timing = finish(order.getId());
+		if (timing != null) {
+			transition(timing, LifecycleStage.CANCELLED);
+		}
+	}
+
+	@Override
+	public void ordersReset() {
+		inFlight.clear();
+		byCreation.clear();
+	}
+
+	/**
+	 * Returns the histogram of the stage for the building, empty if nothing was
+	 * recorded for the building
+	 *
+	 * @param building
+	 * @param stage
+	 * @return
+	 */
+	public LatencyHistogram histogram(int building, LifecycleStage stage) {
+		var stages = histograms.get(building);
+		return stages == null ? new LatencyHistogram() : stages.get(stage);
+	}
+
+	/**
+	 * Returns a histogram of the stage merging every building
+	 *
+	 * @param stage
+	 * @return
+	 */
+	public LatencyHistogram histogram(LifecycleStage stage) {
+		var merged = new LatencyHistogram();
+		for (var stages : histograms.values()) {
+			merged.add(stages.get(stage));
+		}
+		return merged;
+	}
+
+	/**
+	 * Returns the number of deliveries slower than the SLA
+	 *
+	 * @return
+	 */
+	public long slaBreaches() {
+		return slaBreaches.sum();
+	}
+
+	/**
+	 * Returns the number of orders not yet delivered or cancelled
+	 *
+	 * @return
+	 */
+	public int inFlightCount() {
+		return inFlight.size();
+	}
+
+	/**
+	 * Returns the oldest in-flight orders, oldest first
+	 *
+	 * @param limit
+	 * @return
+	 */
+	public List<InFlightOrder> slowestInFlight(int limit) {
+		var now = clock.getAsLong();
+		var result = new ArrayList<InFlightOrder>(limit);
+		for (var timing : byCreation) {
+			if (result.size() >= limit) {
+				break;
+			}
+			result.add(new InFlightOrder(timing.orderId, timing.building, now - timing.createdAt));
+		}
+		return result;
+	}
+
+	private Timing finish(UUID orderId) {
+		var timing = inFlight.remove(orderId);
+		if (timing != null) {
+			byCreation.remove(timing);
+		}
+		return timing;
+	}
+
+	/**
+	 * Records the time since the previous transition of the order, unless the
+	 * stage was already recorded or the order is finished
+	 *
+	 * @param timing
+	 * @param stage
+	 * @return whether the stage was recorded
+	 */
+	private boolean transition(Timing timing, LifecycleStage stage) {
+		var bit = 1 << stage.ordinal();
+		synchronized (timing) {
+			if ((timing.recorded & (bit | FINISHED)) != 0) {
+				return false;
+			}
+			var now = clock.getAsLong();
+			recorder(timing.building, stage).record(now - timing.lastAt);
+			timing.stamps[stage.ordinal()] = now;
+			timing.recorded |= bit;
+			timing.lastAt = now;
+			return true;
+		}
+	}
+
+	private LatencyHistogram recorder(int building, LifecycleStage stage) {
+		return histograms.computeIfAbsent(building, id -> {
+			var stages = new EnumMap<LifecycleStage, LatencyHistogram>(LifecycleStage.class);
+			for (var value : LifecycleStage.values()) {
+				stages.put(value, new LatencyHistogram());
+			}
+			return stages;
+		}).get(stage);
+	}
+
+	/**
+	 * Timestamps of an in-flight order, by stage, guarded by the timing itself
+	 */
+	private static class Timing {
+		private final UUID orderId;
+		private final int building;
+		private final long createdAt;
+		private final long[] stamps = new long[LifecycleStage.values().length];
+		private int recorded;
+		private long lastAt;
+
+		private Timing(UUID orderId, int building, long createdAt) {
+			this.orderId = orderId;
+			this.building = building;
+			this.createdAt = createdAt;
+			this.lastAt = createdAt;
+		}
+	}
+
+}
@@ -0,0 +1,691 @@
+package org.pancakelab.service.replication;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.pancakelab.model.Order;
+import org.pancakelab.model.OrderDTO;
+import org.pancakelab.model.pancakes.PancakeIngredient;
+import org.pancakelab.model.pancakes.PancakeRecipe;
+import org.pancakelab.service.OrderLog;
+import org.pancakelab.service.PancakeService;
+import org.pancakelab.service.PancakeServiceListener;
+import org.pancakelab.service.replication.ReplicationEvent.Type;
+
+/**
+ * Pancake service replicated from a leader to followers.
+ *
+ * The leader assigns a sequence to every state change and streams it to the
+ * followers through bounded in-process channels. Changes of the same order are
+ * published under the same lock stripe as they are applied, so they get
+ * increasing sequences; changes of different orders only share an atomic
+ * counter and concurrent maps, and may reach a channel out of order. A change
+ * is published once committed, even when a listener of the leader throws.
+ *
+ * A follower applies the stream on its own thread in sequence order, holding
+ * early changes until the missing ones arrive, and serves read-only queries,
+ * rejecting them when it is more than {@code maxLag} changes behind the leader.
+ * A follower that falls behind the retained log, that follows a new leader or
+ * that fails to apply a change is resynchronized from a compacted snapshot,
+ * taken while holding every stripe. A follower can be promoted when the leader
+ * fails.
+ */
+public class ReplicatedPancakeService extends PancakeService {
+
+	public static final int DEFAULT_RETENTION = 10_000;
+
+	private static final int STRIPES = Math.max(64, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 16));
+
+	private static final long POLL_MILLIS = 50;
+
+	private final Object[] stripes = new Object[STRIPES];
+	private final int retention;
+	private final ConcurrentSkipListMap<Long, ReplicationEvent> retained = new ConcurrentSkipListMap<>();
+	private final Map<UUID, List<ReplicationEvent>> compacted = new ConcurrentHashMap<>();
+	private final List<ReplicationChannel> channels = new CopyOnWriteArrayList<>();
+	private final AtomicLong lastSequence = new AtomicLong();
+	private final Object progress = new Object();
+	private final ThreadLocal<Boolean> committed = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+	private volatile long appliedSequence;
+	private volatile boolean leader = true;
+	private volatile boolean closed;
+	private volatile boolean failed;
+	private volatile long maxLag = Long.MAX_VALUE;
+	private volatile ReplicationChannel channel;
+	private Thread follower;
+
+	public ReplicatedPancakeService(OrderLog log) {
+		this(log, DEFAULT_RETENTION);
+	}
+
+	public ReplicatedPancakeService(OrderLog log, int retention) {
+		super(log);
+		if (retention <= 0) {
+			throw new IllegalArgumentException("retention must be positive");
+		}
+		this.retention = retention;
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Object();
+		}
+		// first listener, so that it runs before any listener that could throw
+		addListener(new CommitListener());
+	}
+
+	/**
+	 * Turns this instance into a follower of the leader. Reads are rejected when
+	 * more than {@code maxLag} changes behind the leader
+	 *
+	 * @param source
+	 * @param capacity
+	 * @param maxLag
+	 */
+	public synchronized void follow(ReplicatedPancakeService source, int capacity, long maxLag) {
+		if (source == this) {
+			throw new IllegalArgumentException("cannot follow itself");
+		}
+		stopFollowing();
+		appliedSequence = -1;
+		this.leader = false;
+		this.maxLag = maxLag;
+		var thread = new Thread(() -> replicate(source, capacity), "pancake-follower");
+		thread.setDaemon(true);
+		follower = thread;
+		thread.start();
+	}
+
+	/**
+	 * Promotes a follower to leader, continuing the sequence from the last
+	 * applied change
+	 */
+	public synchronized void promote() {
+		if (closed) {
+			throw new IllegalStateException("replica closed");
+		}
+		stopFollowing();
+		lastSequence.set(appliedSequence);
+		maxLag = Long.MAX_VALUE;
+		failed = false;
+		leader = true;
+	}
+
+	/**
+	 * Stops the instance, as if it failed. Followers stop receiving changes
+	 */
+	public synchronized void close() {
+		closed = true;
+		stopFollowing();
+		channels.clear();
+	}
+
+	public boolean isLeader() {
+		return leader && !closed;
+	}
+
+	/**
+	 * Returns true while a follower is resynchronizing after failing to apply a
+	 * change
+	 *
+	 * @return
+	 */
+	public boolean isFailed() {
+		return failed;
+	}
+
+	/**
+	 * Returns the last sequence applied by this instance
+	 *
+	 * @return
+	 */
+	public long lastSequence() {
+		return leader ? lastSequence.get() : appliedSequence;
+	}
+
+	/**
+	 * Returns how many changes this follower is behind its leader
+	 *
+	 * @return
+	 */
+	public long lag() {
+		var current = channel;
+		return leader || current == null ? 0 : Math.max(0, current.publishedSequence() - appliedSequence);
+	}
+
+	/**
+	 * Waits until the sequence is applied
+	 *
+	 * @param sequence
+	 * @param timeoutMillis
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public boolean awaitSequence(long sequence, long timeoutMillis) throws InterruptedException {
+		var deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (progress) {
+			while (lastSequence() < sequence) {
+				var remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					return false;
+				}
+				progress.wait(Math.min(remaining, POLL_MILLIS));
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public OrderDTO createOrder(int building, int room) {
+		checkLeader();
+		var orderId = UUID.randomUUID();
+		synchronized (stripe(orderId)) {
+			return commit(new ReplicationEvent(0, Type.CREATE_ORDER, orderId, building, room, null, 0, null), () -> super.createOrder(orderId, building, room));
+		}
+	}
+
+	@Override
+	public void createCustom(UUID orderId) {
+		checkLeader();
+		synchronized (stripe(orderId)) {
+			commit(ReplicationEvent.of(0, Type.CREATE_CUSTOM, orderId), () -> super.createCustom(orderId));
+		}
+	}
+
+	@Override
+	public void addIngredient(UUID orderId, PancakeIngredient ingredient) {
+		checkLeader();
+		synchronized (stripe(orderId)) {
+			commit(new ReplicationEvent(0, Type.ADD_INGREDIENT, orderId, 0, 0, null, 0, ingredient), () -> super.addIngredient(orderId, ingredient));
+		}
+	}
+
+	@Override
+	public void finishCustom(UUID orderId) {
+		checkLeader();
+		synchronized (stripe(orderId)) {
+			commit(ReplicationEvent.of(0, Type.FINISH_CUSTOM, orderId), () -> super.finishCustom(orderId));
+		}
+	}
+
+	@Override
+	public void addDarkChocolatePancake(UUID orderId, int count) {
+		checkLeader();
+		synchronized (stripe(orderId)) {
+			commit(new ReplicationEvent(0, Type.ADD_DARK_CHOCOLATE, orderId, 0, 0, null, count, null), () -> super.addDarkChocolatePancake(orderId, count));
+		}
+	}
+
+	@Override
+	public void addDarkChocolateWhippedCreamPancake(UUID orderId, int count) {
+		checkLeader();
+		synchronized (stripe(orderId)) {
+			commit(new ReplicationEvent(0, Type.ADD_DARK_CHOCOLATE_WHIPPED_CREAM, orderId, 0, 0, null, count, null), () -> super.addDarkChocolateWhippedCreamPancake(orderId, count));
+		}
+	}
+
+	@Override
+	public void addDarkChocolateWhippedCreamHazelnutsPancake(UUID orderId, int count) {
+		checkLeader();
+		synchronized (stripe(orderId)) {
+			commit(new ReplicationEvent(0, Type.ADD_DARK_CHOCOLATE_WHIPPED_CREAM_HAZELNUTS, orderId, 0, 0, null, count, null), () -> super.addDarkChocolateWhippedCreamHazelnutsPancake(orderId, count));
+		}
+	}
+
+	@Override
+	public void addMilkChocolatePancake(UUID orderId, int count) {
+		checkLeader();
+		synchronized (stripe(orderId)) {
+			commit(new ReplicationEvent(0, Type.ADD_MILK_CHOCOLATE, orderId, 0, 0, null, count, null), () -> super.addMilkChocolatePancake(orderId, count));
+		}
+	}
+
+	@Override
+	public void addMilkChocolateHazelnutsPancake(UUID orderId, int count) {
+		checkLeader();
+		synchronized (stripe(orderId)) {
+			commit(new ReplicationEvent(0, Type.ADD_MILK_CHOCOLATE_HAZELNUTS, orderId, 0, 0, null, count, null), () -> super.addMilkChocolateHazelnutsPancake(orderId, count));
+		}
+	}
+
+	@Override
+	public List<String> viewOrder(UUID orderId) {
+		checkFresh();
+		return super.viewOrder(orderId);
+	}
+
+	@Override
+	public void removePancakes(String description, UUID orderId, int count) {
+		checkLeader();
+		synchronized (stripe(orderId)) {
+			commit(new ReplicationEvent(0, Type.REMOVE_PANCAKES, orderId, 0, 0, description, count, null), () -> super.removePancakes(description, orderId, count));
+		}
+	}
+
+	@Override
+	public void cancelOrder(UUID orderId) {
+		checkLeader();
+		synchronized (stripe(orderId)) {
+			commit(ReplicationEvent.of(0, Type.CANCEL_ORDER, orderId), () -> super.cancelOrder(orderId));
+		}
+	}
+
+	@Override
+	public void completeOrder(UUID orderId) {
+		checkLeader();
+		synchronized (stripe(orderId)) {
+			commit(ReplicationEvent.of(0, Type.COMPLETE_ORDER, orderId), () -> super.completeOrder(orderId));
+		}
+	}
+
+	@Override
+	public Set<UUID> listCompletedOrders() {
+		checkFresh();
+		return super.listCompletedOrders();
+	}
+
+	@Override
+	public void prepareOrder(UUID orderId) {
+		checkLeader();
+		synchronized (stripe(orderId)) {
+			commit(ReplicationEvent.of(0, Type.PREPARE_ORDER, orderId), () -> super.prepareOrder(orderId));
+		}
+	}
+
+	@Override
+	public Set<UUID> listPreparedOrders() {
+		checkFresh();
+		return super.listPreparedOrders();
+	}
+
+	@Override
+	public DeliverOrder deliverOrder(UUID orderId) {
+		checkLeader();
+		synchronized (stripe(orderId)) {
+			committed.set(Boolean.FALSE);
+			DeliverOrder delivered = null;
+			try {
+				delivered = super.deliverOrder(orderId);
+				return delivered;
+			} finally {
+				if (delivered != null || committed.get()) {
+					publish(ReplicationEvent.of(0, Type.DELIVER_ORDER, orderId));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Registers a channel, filling it with the retained changes after the
+	 * sequence or with a snapshot when they are no longer retained. Changes
+	 * published while the retained ones are replayed may reach the channel twice
+	 * or out of order, which the follower tolerates
+	 *
+	 * @param channel
+	 * @param fromSequence
+	 */
+	void subscribe(ReplicationChannel channel, long fromSequence) {
+		if (closed) {
+			return;
+		}
+		if (fromSequence >= 0 && fromSequence <= lastSequence.get()) {
+			// registered first, so that a change is either retained before the replay or
+			// offered to the channel
+			channels.add(channel);
+			var missed = retained.tailMap(fromSequence, false);
+			if (missed.isEmpty() || missed.firstKey() == fromSequence + 1) {
+				for (var event : missed.values()) {
+					if (!channel.offer(event)) {
+						channels.remove(channel);
+						return;
+					}
+				}
+				return;
+			}
+			channels.remove(channel);
+		}
+		withAllStripes(() -> {
+			if (channel.offer(snapshot())) {
+				channels.add(channel);
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Stops sending changes to a channel
+	 *
+	 * @param channel
+	 */
+	void unsubscribe(ReplicationChannel channel) {
+		channels.remove(channel);
+	}
+
+	/**
+	 * Returns the compacted state, holding only changes of live orders
+	 *
+	 * @return
+	 */
+	ReplicationSnapshot snapshot() {
+		return withAllStripes(() -> {
+			var events = new ArrayList<ReplicationEvent>();
+			compacted.values().forEach(events::addAll);
+			events.sort(Comparator.comparingLong(ReplicationEvent::sequence));
+			return new ReplicationSnapshot(lastSequence(), List.copyOf(events));
+		});
+	}
+
+	/**
+	 * Applies changes from the leader until the follower is promoted or stopped.
+	 * A change that fails to apply marks the follower as failed and restarts it
+	 * from a snapshot
+	 *
+	 * @param source
+	 * @param capacity
+	 */
+	private void replicate(ReplicatedPancakeService source, int capacity) {
+		var fromSequence = -1L;
+		var early = new TreeMap<Long, ReplicationEvent>();
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				var current = new ReplicationChannel(capacity);
+				channel = current;
+				source.subscribe(current, fromSequence);
+				try {
+					while (!current.isOverflowed()) {
+						var message = current.poll(POLL_MILLIS);
+						if (message instanceof ReplicationSnapshot snapshot) {
+							early.clear();
+							restore(snapshot);
+						} else if (message instanceof ReplicationEvent event) {
+							receive(event, early);
+						}
+					}
+					fromSequence = appliedSequence;
+				} catch (RuntimeException e) {
+					failed = true;
+					source.unsubscribe(current);
+					early.clear();
+					fromSequence = -1;
+					appliedSequence = -1;
+					Thread.sleep(POLL_MILLIS);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Applies the change and the early ones that follow it, or holds it until the
+	 * changes before it arrive
+	 *
+	 * @param event
+	 * @param early
+	 */
+	private void receive(ReplicationEvent event, NavigableMap<Long, ReplicationEvent> early) {
+		if (appliedSequence < 0 || event.sequence() <= appliedSequence) {
+			return;
+		}
+		early.put(event.sequence(), event);
+		for (var next = early.remove(appliedSequence + 1); next != null; next = early.remove(appliedSequence + 1)) {
+			apply(next);
+		}
+	}
+
+	/**
+	 * Replaces the local state with the snapshot
+	 *
+	 * @param snapshot
+	 */
+	private void restore(ReplicationSnapshot snapshot) {
+		appliedSequence = -1;
+		withAllStripes(() -> {
+			reset();
+			retained.clear();
+			compacted.clear();
+			lastSequence.set(0);
+			return null;
+		});
+		for (var event : snapshot.events()) {
+			apply(event);
+		}
+		lastSequence.set(snapshot.sequence());
+		appliedSequence = snapshot.sequence();
+		failed = false;
+		synchronized (progress) {
+			progress.notifyAll();
+		}
+	}
+
+	/**
+	 * Applies a change received from the leader, under the stripe of its order
+	 * so that snapshots of this follower stay consistent
+	 *
+	 * @param event
+	 */
+	private void apply(ReplicationEvent event) {
+		var orderId = event.orderId();
+		synchronized (stripe(orderId)) {
+			switch (event.type()) {
+			case CREATE_ORDER -> super.createOrder(orderId, event.building(), event.room());
+			case CREATE_CUSTOM -> super.createCustom(orderId);
+			case ADD_INGREDIENT -> super.addIngredient(orderId, event.ingredient());
+			case FINISH_CUSTOM -> super.finishCustom(orderId);
+			case ADD_DARK_CHOCOLATE -> super.addDarkChocolatePancake(orderId, event.count());
+			case ADD_DARK_CHOCOLATE_WHIPPED_CREAM -> super.addDarkChocolateWhippedCreamPancake(orderId, event.count());
+			case ADD_DARK_CHOCOLATE_WHIPPED_CREAM_HAZELNUTS -> super.addDarkChocolateWhippedCreamHazelnutsPancake(orderId, event.count());
+			case ADD_MILK_CHOCOLATE -> super.addMilkChocolatePancake(orderId, event.count());
+			case ADD_MILK_CHOCOLATE_HAZELNUTS -> super.addMilkChocolateHazelnutsPancake(orderId, event.count());
+			case REMOVE_PANCAKES -> super.removePancakes(event.description(), orderId, event.count());
+			case CANCEL_ORDER -> super.cancelOrder(orderId);
+			case COMPLETE_ORDER -> super.completeOrder(orderId);
+			case PREPARE_ORDER -> super.prepareOrder(orderId);
+			case DELIVER_ORDER -> super.deliverOrder(orderId);
+			}
+			record(event);
+			lastSequence.accumulateAndGet(event.sequence(), Math::max);
+			if (appliedSequence >= 0) {
+				appliedSequence = event.sequence();
+			}
+			for (var channel : channels) {
+				offer(channel, event);
+			}
+		}
+		synchronized (progress) {
+			progress.notifyAll();
+		}
+	}
+
+	/**
+	 * Runs a change of the leader and publishes it once it is committed, also
+	 * when a listener notified after the commit throws. Called under the stripe
+	 * of the order
+	 *
+	 * @param change
+	 * @param call
+	 */
+	private void commit(ReplicationEvent change, Runnable call) {
+		commit(change, () -> {
+			call.run();
+			return null;
+		});
+	}
+
+	private <T> T commit(ReplicationEvent change, Supplier<T> call) {
+		committed.set(Boolean.FALSE);
+		try {
+			var result = call.get();
+			committed.set(Boolean.TRUE);
+			return result;
+		} finally {
+			if (committed.get()) {
+				publish(change);
+			}
+		}
+	}
+
+	/**
+	 * Assigns the next sequence to a change applied by the leader and streams it
+	 * to the followers. Called under the stripe of the order
+	 *
+	 * @param change
+	 */
+	private void publish(ReplicationEvent change) {
+		var event = new ReplicationEvent(lastSequence.incrementAndGet(), change.type(), change.orderId(), change.building(), change.room(),
+				change.description(), change.count(), change.ingredient());
+		record(event);
+		for (var channel : channels) {
+			offer(channel, event);
+		}
+	}
+
+	/**
+	 * Keeps the change in the retained log and, for known orders, in the
+	 * compacted state. Completions of orders that were never created are only
+	 * streamed
+	 *
+	 * @param event
+	 */
+	private void record(ReplicationEvent event) {
+		retained.put(event.sequence(), event);
+		for (var oldest = retained.firstEntry(); oldest != null && oldest.getKey() <= event.sequence() - retention; oldest = retained.firstEntry()) {
+			retained.remove(oldest.getKey());
+		}
+		if (event.type() == Type.CREATE_ORDER) {
+			var events = new ArrayList<ReplicationEvent>();
+			events.add(event);
+			compacted.put(event.orderId(), events);
+		} else if (event.type().isTerminal()) {
+			compacted.remove(event.orderId());
+		} else {
+			var events = compacted.get(event.orderId());
+			if (events != null) {
+				events.add(event);
+			}
+		}
+	}
+
+	/**
+	 * Sends the change to a follower, dropping the follower when it is too far
+	 * behind. It subscribes again once it drains its channel
+	 *
+	 * @param channel
+	 * @param event
+	 */
+	private void offer(ReplicationChannel channel, ReplicationEvent event) {
+		if (!channel.offer(event)) {
+			channels.remove(channel);
+		}
+	}
+
+	private void stopFollowing() {
+		var thread = follower;
+		follower = null;
+		if (thread != null) {
+			thread.interrupt();
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		channel = null;
+	}
+
+	private void checkLeader() {
+		if (closed) {
+			throw new IllegalStateException("replica closed");
+		}
+		if (!leader) {
+			throw new IllegalStateException("read-only replica");
+		}
+	}
+
+	private void checkFresh() {
+		if (closed) {
+			throw new IllegalStateException("replica closed");
+		}
+		if (!leader && (appliedSequence < 0 || lag() > maxLag)) {
+			throw new IllegalStateException(failed ? "replica failed" : "replica is stale");
+		}
+	}
+
+	/**
+	 * Runs the call holding every stripe, so that no change is being published
+	 *
+	 * @param <T>
+	 * @param call
+	 * @return
+	 */
+	private <T> T withAllStripes(Supplier<T> call) {
+		return withStripes(0, call);
+	}
+
+	private <T> T withStripes(int from, Supplier<T> call) {
+		if (from == STRIPES) {
+			return call.get();
+		}
+		synchronized (stripes[from]) {
+			return withStripes(from + 1, call);
+		}
+	}
+
+	private Object stripe(UUID orderId) {
+		var hash = orderId == null ? 0 : orderId.hashCode();
+		return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+	}
+
+	/**
+	 * Marks the change of the calling thread as committed, the service notifies
+	 * the listeners only once the state has changed
+	 */
+	private class CommitListener implements PancakeServiceListener {
+
+		@Override
+		public void orderCreated(Order order) {
+			committed.set(Boolean.TRUE);
+		}
+
+		@Override
+		public void pancakesAdded(Order order, List<PancakeRecipe> added) {
+			committed.set(Boolean.TRUE);
+		}
+
+		@Override
+		public void pancakesRemoved(Order order, List<PancakeRecipe> removed) {
+			committed.set(Boolean.TRUE);
+		}
+
+		@Override
+		public void orderCompleted(UUID orderId) {
+			committed.set(Boolean.TRUE);
+		}
+
+		@Override
+		public void orderPrepared(Order order) {
+			committed.set(Boolean.TRUE);
+		}
+
+		@Override
+		public void orderDelivered(Order order, List<PancakeRecipe> pancakes) {
+			committed.set(Boolean.TRUE);
+		}
+
+		@Override
+		public void orderCancelled(Order order, List<PancakeRecipe> pancakes) {
+			committed.set(Boolean.TRUE);
+		}
+
+	}
+
+}
@@ -0,0 +1,67 @@
+package org.pancakelab.service.replication;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-process channel from a leader to a single follower
+ */
+class ReplicationChannel {
+
+	private final BlockingQueue<ReplicationMessage> queue;
+	private final AtomicLong publishedSequence = new AtomicLong();
+	private volatile boolean overflowed;
+
+	public ReplicationChannel(int capacity) {
+		this.queue = new ArrayBlockingQueue<>(capacity);
+	}
+
+	/**
+	 * Enqueues a message without blocking the leader. When the follower is too
+	 * far behind the channel is marked as overflowed and stops accepting messages
+	 *
+	 * @param message
+	 * @return
+	 */
+	public boolean offer(ReplicationMessage message) {
+		publishedSequence.accumulateAndGet(message.sequence(), Math::max);
+		if (overflowed || !queue.offer(message)) {
+			overflowed = true;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Waits for the next message
+	 *
+	 * @param timeoutMillis
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public ReplicationMessage poll(long timeoutMillis) throws InterruptedException {
+		return queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Returns the last sequence the leader tried to publish
+	 *
+	 * @return
+	 */
+	public long publishedSequence() {
+		return publishedSequence.get();
+	}
+
+	/**
+	 * Returns true when messages were dropped and the follower must subscribe
+	 * again
+	 *
+	 * @return
+	 */
+	public boolean isOverflowed() {
+		return overflowed && queue.isEmpty();
+	}
+
+}
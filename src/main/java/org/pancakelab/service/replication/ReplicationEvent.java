@@ -0,0 +1,54 @@
+package org.pancakelab.service.replication;
+
+import java.util.UUID;
+
+import org.pancakelab.model.pancakes.PancakeIngredient;
+
+/**
+ * State change applied by a leader, in the order it was applied
+ */
+public record ReplicationEvent(long sequence, Type type, UUID orderId, int building, int room, String description, int count, PancakeIngredient ingredient)
+		implements ReplicationMessage {
+
+	/**
+	 * Kind of state change, one for each mutating operation of the service
+	 */
+	public enum Type {
+		CREATE_ORDER, //
+		CREATE_CUSTOM, //
+		ADD_INGREDIENT, //
+		FINISH_CUSTOM, //
+		ADD_DARK_CHOCOLATE, //
+		ADD_DARK_CHOCOLATE_WHIPPED_CREAM, //
+		ADD_DARK_CHOCOLATE_WHIPPED_CREAM_HAZELNUTS, //
+		ADD_MILK_CHOCOLATE, //
+		ADD_MILK_CHOCOLATE_HAZELNUTS, //
+		REMOVE_PANCAKES, //
+		CANCEL_ORDER, //
+		COMPLETE_ORDER, //
+		PREPARE_ORDER, //
+		DELIVER_ORDER;
+
+		/**
+		 * Returns true when the change removes the order from the service
+		 *
+		 * @return
+		 */
+		public boolean isTerminal() {
+			return this == CANCEL_ORDER || this == DELIVER_ORDER;
+		}
+	}
+
+	/**
+	 * Creates an event that carries only the order identifier
+	 *
+	 * @param sequence
+	 * @param type
+	 * @param orderId
+	 * @return
+	 */
+	static ReplicationEvent of(long sequence, Type type, UUID orderId) {
+		return new ReplicationEvent(sequence, type, orderId, 0, 0, null, 0, null);
+	}
+
+}
@@ -0,0 +1,15 @@
+package org.pancakelab.service.replication;
+
+/**
+ * Message sent from a leader to a follower through a {@link ReplicationChannel}
+ */
+sealed interface ReplicationMessage permits ReplicationEvent, ReplicationSnapshot {
+
+	/**
+	 * Returns the last sequence covered by the message
+	 *
+	 * @return
+	 */
+	long sequence();
+
+}
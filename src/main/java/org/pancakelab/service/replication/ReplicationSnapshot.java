@@ -0,0 +1,10 @@
+package org.pancakelab.service.replication;
+
+import java.util.List;
+
+/**
+ * Compacted state of a leader up to a sequence, replayed by a follower that
+ * fell behind the retained log
+ */
+record ReplicationSnapshot(long sequence, List<ReplicationEvent> events) implements ReplicationMessage {
+}
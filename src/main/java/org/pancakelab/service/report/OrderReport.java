@@ -0,0 +1,111 @@
+package org.pancakelab.service.report;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.pancakelab.model.pancakes.CustomPancake;
+import org.pancakelab.model.pancakes.PancakeRecipe;
+
+/**
+ * Aggregates of the open orders of a service
+ *
+ * @param orders           number of open orders
+ * @param pancakesByRecipe pancakes by recipe description
+ * @param ordersByBuilding open orders by building and status
+ * @param customPancakes   finished custom pancakes
+ * @param customInOrders   orders with at least one custom pancake
+ */
+public record OrderReport(long orders, Map<String, Long> pancakesByRecipe, Map<Integer, Map<OrderStatus, Long>> ordersByBuilding, long customPancakes,
+		long customInOrders) {
+
+	/**
+	 * Returns the open orders by status, over every building
+	 *
+	 * @return
+	 */
+	public Map<OrderStatus, Long> ordersByStatus() {
+		var result = new EnumMap<OrderStatus, Long>(OrderStatus.class);
+		for (var status : OrderStatus.values()) {
+			result.put(status, 0L);
+		}
+		for (var statuses : ordersByBuilding.values()) {
+			statuses.forEach((status, count) -> result.merge(status, count, Long::sum));
+		}
+		return result;
+	}
+
+	/**
+	 * Partial report of a subset of the orders. Not thread safe, each task fills
+	 * its own and merges the ones of its subtasks
+	 */
+	public static class Builder {
+
+		private final Map<String, long[]> pancakesByRecipe = new HashMap<>();
+		private final Map<Integer, long[]> ordersByBuilding = new HashMap<>();
+		private long orders;
+		private long customPancakes;
+		private long customInOrders;
+
+		/**
+		 * Adds an order
+		 *
+		 * @param building
+		 * @param status
+		 * @param recipes
+		 * @param descriptions descriptions of the recipes, in the same order
+		 */
+		public void add(int building, OrderStatus status, List<PancakeRecipe> recipes, List<String> descriptions) {
+			orders++;
+			ordersByBuilding.computeIfAbsent(building, id -> new long[OrderStatus.values().length])[status.ordinal()]++;
+			var custom = 0;
+			for (int i = 0; i < recipes.size(); i++) {
+				pancakesByRecipe.computeIfAbsent(descriptions.get(i), description -> new long[1])[0]++;
+				if (recipes.get(i) instanceof CustomPancake) {
+					custom++;
+				}
+			}
+			customPancakes += custom;
+			if (custom > 0) {
+				customInOrders++;
+			}
+		}
+
+		/**
+		 * Adds the orders of another partial report
+		 *
+		 * @param other
+		 * @return this builder
+		 */
+		public Builder merge(Builder other) {
+			orders += other.orders;
+			customPancakes += other.customPancakes;
+			customInOrders += other.customInOrders;
+			other.pancakesByRecipe.forEach((description, count) -> pancakesByRecipe.computeIfAbsent(description, key -> new long[1])[0] += count[0]);
+			other.ordersByBuilding.forEach((building, counts) -> {
+				var sums = ordersByBuilding.computeIfAbsent(building, id -> new long[OrderStatus.values().length]);
+				for (int i = 0; i < sums.length; i++) {
+					sums[i] += counts[i];
+				}
+			});
+			return this;
+		}
+
+		public OrderReport build() {
+			var recipes = new TreeMap<String, Long>();
+			pancakesByRecipe.forEach((description, count) -> recipes.put(description, count[0]));
+			var buildings = new TreeMap<Integer, Map<OrderStatus, Long>>();
+			ordersByBuilding.forEach((building, counts) -> {
+				var statuses = new EnumMap<OrderStatus, Long>(OrderStatus.class);
+				for (var status : OrderStatus.values()) {
+					statuses.put(status, counts[status.ordinal()]);
+				}
+				buildings.put(building, statuses);
+			});
+			return new OrderReport(orders, recipes, buildings, customPancakes, customInOrders);
+		}
+	}
+
+}
@@ -0,0 +1,12 @@
+package org.pancakelab.service.report;
+
+/**
+ * Status of an open order
+ */
+public enum OrderStatus {
+
+	OPEN, //
+	COMPLETED, //
+	PREPARED;
+
+}
@@ -0,0 +1,187 @@
+package org.pancakelab.service.sharded;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import org.pancakelab.model.Order;
+import org.pancakelab.model.OrderDTO;
+import org.pancakelab.model.pancakes.CustomPancake;
+import org.pancakelab.model.pancakes.PancakeIngredient;
+import org.pancakelab.model.pancakes.PancakeRecipe;
+import org.pancakelab.service.OrderLog;
+import org.pancakelab.service.OrderRules;
+import org.pancakelab.service.PancakeService.DeliverOrder;
+import org.pancakelab.service.PancakeServiceListener;
+import org.pancakelab.service.jfr.PancakeOperationEvent;
+import org.pancakelab.service.report.OrderReport;
+import org.pancakelab.service.report.OrderStatus;
+
+/**
+ * Orders owned by one worker. Only the worker thread touches a slice, so it
+ * uses plain collections and no locks, and applies the same
+ * {@link OrderRules} as {@link org.pancakelab.service.PancakeService}. The
+ * operations fill in the event started by the calling thread
+ */
+class OrderSlice {
+
+	private final OrderLog log;
+	private final List<PancakeServiceListener> listeners;
+	private final Map<UUID, SliceOrder> orders = new HashMap<>();
+	private final Set<UUID> completedOrders = new HashSet<>();
+	private final Set<UUID> preparedOrders = new HashSet<>();
+
+	OrderSlice(OrderLog log, List<PancakeServiceListener> listeners) {
+		this.log = log;
+		this.listeners = listeners;
+	}
+
+	OrderLog log() {
+		return log;
+	}
+
+	OrderDTO createOrder(UUID orderId, int building, int room, PancakeOperationEvent event) {
+		var order = new Order(orderId, building, room);
+		orders.put(orderId, new SliceOrder(order));
+		listeners.forEach(listener -> listener.orderCreated(order));
+		event.forBuilding(building);
+		event.succeeded(0);
+		return OrderDTO.fromData(order);
+	}
+
+	void createCustom(UUID orderId, PancakeOperationEvent event) {
+		var entry = orderOrThrow(orderId, event);
+		entry.custom = OrderRules.startCustom(entry.custom);
+		event.succeeded(entry.recipes.size());
+	}
+
+	void addIngredient(UUID orderId, PancakeIngredient ingredient, PancakeOperationEvent event) {
+		var entry = orderOrThrow(orderId, event);
+		OrderRules.inProgress(entry.custom).addIngredient(ingredient);
+		event.succeeded(entry.recipes.size());
+	}
+
+	void finishCustom(UUID orderId, PancakeOperationEvent event) {
+		var entry = orderOrThrow(orderId, event);
+		var custom = OrderRules.finishCustom(log, entry.order, entry.recipes, entry.custom);
+		entry.custom = null;
+		listeners.forEach(listener -> listener.pancakesAdded(entry.order, List.of(custom)));
+		event.succeeded(entry.recipes.size());
+	}
+
+	void addPancakes(UUID orderId, int count, Supplier<PancakeRecipe> recipe, PancakeOperationEvent event) {
+		var entry = orderOrThrow(orderId, event);
+		var added = OrderRules.addPancakes(log, entry.order, entry.recipes, count, recipe);
+		if (!added.isEmpty()) {
+			listeners.forEach(listener -> listener.pancakesAdded(entry.order, added));
+		}
+		event.succeeded(entry.recipes.size());
+	}
+
+	List<String> viewOrder(UUID orderId, PancakeOperationEvent event) {
+		var entry = orderId == null ? null : orders.get(orderId);
+		if (entry == null) {
+			event.outcome("not found", 0);
+			return List.of();
+		}
+		event.forBuilding(entry.order.getBuilding());
+		event.succeeded(entry.recipes.size());
+		return entry.recipes.stream().map(PancakeRecipe::description).toList();
+	}
+
+	void removePancakes(String description, UUID orderId, int count, PancakeOperationEvent event) {
+		var entry = orderOrThrow(orderId, event);
+		var removed = OrderRules.removePancakes(log, entry.order, entry.recipes, description, count);
+		if (!removed.isEmpty()) {
+			listeners.forEach(listener -> listener.pancakesRemoved(entry.order, removed));
+		}
+		event.succeeded(entry.recipes.size());
+	}
+
+	void cancelOrder(UUID orderId, PancakeOperationEvent event) {
+		var entry = orderOrThrow(orderId, event);
+		orders.remove(orderId);
+		completedOrders.remove(orderId);
+		preparedOrders.remove(orderId);
+		var recipes = List.copyOf(entry.recipes);
+		log.logCancelOrder(entry.order, recipes);
+		listeners.forEach(listener -> listener.orderCancelled(entry.order, recipes));
+		event.succeeded(recipes.size());
+	}
+
+	void completeOrder(UUID orderId, PancakeOperationEvent event) {
+		completedOrders.add(orderId);
+		listeners.forEach(listener -> listener.orderCompleted(orderId));
+		event.succeeded(0);
+	}
+
+	Set<UUID> completedOrders() {
+		return new HashSet<>(completedOrders);
+	}
+
+	void prepareOrder(UUID orderId, PancakeOperationEvent event) {
+		var entry = orderOrThrow(orderId, event);
+		OrderRules.checkPreparable(entry.custom);
+		completedOrders.remove(orderId);
+		preparedOrders.add(orderId);
+		listeners.forEach(listener -> listener.orderPrepared(entry.order));
+		event.succeeded(entry.recipes.size());
+	}
+
+	Set<UUID> preparedOrders() {
+		return new HashSet<>(preparedOrders);
+	}
+
+	DeliverOrder deliverOrder(UUID orderId, PancakeOperationEvent event) {
+		var entry = orderOrThrow(orderId, event);
+		if (!preparedOrders.contains(orderId)) {
+			event.outcome("not prepared", entry.recipes.size());
+			return null;
+		}
+		orders.remove(orderId);
+		preparedOrders.remove(orderId);
+		var recipes = List.copyOf(entry.recipes);
+		log.logDeliverOrder(entry.order, recipes);
+		listeners.forEach(listener -> listener.orderDelivered(entry.order, recipes));
+		event.succeeded(recipes.size());
+		return new DeliverOrder(OrderDTO.fromData(entry.order), recipes.stream().map(PancakeRecipe::description).toList());
+	}
+
+	OrderReport.Builder report() {
+		var report = new OrderReport.Builder();
+		for (var entry : orders.values()) {
+			var id = entry.order.getId();
+			var status = preparedOrders.contains(id) ? OrderStatus.PREPARED : completedOrders.contains(id) ? OrderStatus.COMPLETED : OrderStatus.OPEN;
+			report.add(entry.order.getBuilding(), status, entry.recipes, entry.recipes.stream().map(PancakeRecipe::description).toList());
+		}
+		return report;
+	}
+
+	private SliceOrder orderOrThrow(UUID orderId, PancakeOperationEvent event) {
+		var entry = orderId == null ? null : orders.get(orderId);
+		if (entry == null) {
+			throw OrderRules.notFound(orderId);
+		}
+		event.forBuilding(entry.order.getBuilding());
+		return entry;
+	}
+
+	/**
+	 * Mutable order of a slice
+	 */
+	private static class SliceOrder {
+		private final Order order;
+		private final List<PancakeRecipe> recipes = new ArrayList<>();
+		private CustomPancake custom;
+
+		private SliceOrder(Order order) {
+			this.order = order;
+		}
+	}
+
+}
@@ -0,0 +1,466 @@
+package org.pancakelab.service.sharded;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.pancakelab.model.OrderDTO;
+import org.pancakelab.model.pancakes.DarkChocolatePancake;
+import org.pancakelab.model.pancakes.DarkChocolateWhippedCreamHazelnutsPancake;
+import org.pancakelab.model.pancakes.DarkChocolateWhippedCreamPancake;
+import org.pancakelab.model.pancakes.MilkChocolateHazelnutsPancake;
+import org.pancakelab.model.pancakes.MilkChocolatePancake;
+import org.pancakelab.model.pancakes.PancakeIngredient;
+import org.pancakelab.model.pancakes.PancakeRecipe;
+import org.pancakelab.service.OrderLog;
+import org.pancakelab.service.OrderService;
+import org.pancakelab.service.PancakeService;
+import org.pancakelab.service.PancakeService.DeliverOrder;
+import org.pancakelab.service.PancakeServiceListener;
+import org.pancakelab.service.jfr.PancakeOperationEvent;
+import org.pancakelab.service.report.OrderReport;
+
+/**
+ * Shared-nothing pancake service with one worker thread per core.
+ *
+ * Each worker owns the {@link OrderSlice} of the orders whose id hashes to it,
+ * with plain collections and its own {@link OrderLog}, and is the only thread
+ * that touches them. A calling thread gets one {@link SpscQueue} per worker on
+ * its first call and waits for its call to be run by the owning worker, so no
+ * lock, concurrent map or log monitor is ever shared between cores. A caller
+ * whose queue goes from idle to pending schedules it once on the ready queue of
+ * the worker, so a worker only visits the queues that have calls, however many
+ * threads have called it before. Queries over every order are sent to all
+ * workers and merged. Every operation emits the same
+ * {@link PancakeOperationEvent} as {@link PancakeService}, with the time spent
+ * waiting for the owning worker as the lock wait.
+ *
+ * Listeners run on the worker that owns the order. A listener may call back
+ * into orders of the same worker, which runs inline, but a call into an order
+ * owned by another worker, or a query over every order, is rejected with an
+ * {@link IllegalStateException}: two workers waiting for each other would
+ * deadlock.
+ *
+ * Workers spin briefly when idle, then park until a caller wakes them.
+ */
+public class ShardedPancakeService implements OrderService, Closeable {
+
+	private static final int QUEUE_CAPACITY = 16;
+	private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 200 : 0;
+	private static final int YIELDS = 10;
+	private static final long PARK_NANOS = 1_000_000;
+
+	private final Worker[] workers;
+	private final List<PancakeServiceListener> listeners = new CopyOnWriteArrayList<>();
+	private final ThreadLocal<List<Producer>> producers = ThreadLocal.withInitial(this::register);
+	private volatile boolean closed;
+
+	public ShardedPancakeService() {
+		this(Runtime.getRuntime().availableProcessors(), OrderLog::new);
+	}
+
+	public ShardedPancakeService(int workers, Supplier<OrderLog> logs) {
+		if (workers <= 0) {
+			throw new IllegalArgumentException("workers must be positive");
+		}
+		this.workers = new Worker[workers];
+		for (int i = 0; i < workers; i++) {
+			this.workers[i] = new Worker(new OrderSlice(logs.get(), listeners), "pancake-worker-" + i);
+		}
+		for (var worker : this.workers) {
+			worker.start();
+		}
+	}
+
+	/**
+	 * Stops the workers once their pending calls are done
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for (var worker : workers) {
+			LockSupport.unpark(worker);
+		}
+		for (var worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void addListener(PancakeServiceListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Returns the log of the worker that owns the order
+	 *
+	 * @param orderId
+	 * @return
+	 */
+	public OrderLog log(UUID orderId) {
+		return workers[owner(orderId)].slice.log();
+	}
+
+	@Override
+	public OrderDTO createOrder(int building, int room) {
+		return createOrder(UUID.randomUUID(), building, room);
+	}
+
+	private OrderDTO createOrder(UUID orderId, int building, int room) {
+		return call("createOrder", orderId, (slice, event) -> slice.createOrder(orderId, building, room, event));
+	}
+
+	@Override
+	public void createCustom(UUID orderId) {
+		run("createCustom", orderId, (slice, event) -> slice.createCustom(orderId, event));
+	}
+
+	@Override
+	public void addIngredient(UUID orderId, PancakeIngredient ingredient) {
+		run("addIngredient", orderId, (slice, event) -> slice.addIngredient(orderId, ingredient, event));
+	}
+
+	@Override
+	public void finishCustom(UUID orderId) {
+		run("finishCustom", orderId, (slice, event) -> slice.finishCustom(orderId, event));
+	}
+
+	@Override
+	public void addDarkChocolatePancake(UUID orderId, int count) {
+		addPancakes("addDarkChocolatePancake", orderId, count, DarkChocolatePancake::new);
+	}
+
+	@Override
+	public void addDarkChocolateWhippedCreamPancake(UUID orderId, int count) {
+		addPancakes("addDarkChocolateWhippedCreamPancake", orderId, count, DarkChocolateWhippedCreamPancake::new);
+	}
+
+	@Override
+	public void addDarkChocolateWhippedCreamHazelnutsPancake(UUID orderId, int count) {
+		addPancakes("addDarkChocolateWhippedCreamHazelnutsPancake", orderId, count, DarkChocolateWhippedCreamHazelnutsPancake::new);
+	}
+
+	@Override
+	public void addMilkChocolatePancake(UUID orderId, int count) {
+		addPancakes("addMilkChocolatePancake", orderId, count, MilkChocolatePancake::new);
+	}
+
+	@Override
+	public void addMilkChocolateHazelnutsPancake(UUID orderId, int count) {
+		addPancakes("addMilkChocolateHazelnutsPancake", orderId, count, MilkChocolateHazelnutsPancake::new);
+	}
+
+	@Override
+	public List<String> viewOrder(UUID orderId) {
+		return call("viewOrder", orderId, (slice, event) -> slice.viewOrder(orderId, event));
+	}
+
+	@Override
+	public void removePancakes(String description, UUID orderId, int count) {
+		run("removePancakes", orderId, (slice, event) -> slice.removePancakes(description, orderId, count, event));
+	}
+
+	@Override
+	public void cancelOrder(UUID orderId) {
+		run("cancelOrder", orderId, (slice, event) -> slice.cancelOrder(orderId, event));
+	}
+
+	@Override
+	public void completeOrder(UUID orderId) {
+		run("completeOrder", orderId, (slice, event) -> slice.completeOrder(orderId, event));
+	}
+
+	@Override
+	public Set<UUID> listCompletedOrders() {
+		var result = new HashSet<UUID>();
+		broadcast("listCompletedOrders", OrderSlice::completedOrders).forEach(result::addAll);
+		return result;
+	}
+
+	@Override
+	public void prepareOrder(UUID orderId) {
+		run("prepareOrder", orderId, (slice, event) -> slice.prepareOrder(orderId, event));
+	}
+
+	@Override
+	public Set<UUID> listPreparedOrders() {
+		var result = new HashSet<UUID>();
+		broadcast("listPreparedOrders", OrderSlice::preparedOrders).forEach(result::addAll);
+		return result;
+	}
+
+	@Override
+	public DeliverOrder deliverOrder(UUID orderId) {
+		return call("deliverOrder", orderId, (slice, event) -> slice.deliverOrder(orderId, event));
+	}
+
+	/**
+	 * Aggregates the slices on their own workers
+	 */
+	@Override
+	public OrderReport report() {
+		var report = new OrderReport.Builder();
+		broadcast(null, OrderSlice::report).forEach(report::merge);
+		return report.build();
+	}
+
+	private void addPancakes(String operation, UUID orderId, int count, Supplier<PancakeRecipe> recipe) {
+		run(operation, orderId, (slice, event) -> slice.addPancakes(orderId, count, recipe, event));
+	}
+
+	private void run(String operation, UUID orderId, BiConsumer<OrderSlice, PancakeOperationEvent> action) {
+		call(operation, orderId, (slice, event) -> {
+			action.accept(slice, event);
+			return null;
+		});
+	}
+
+	/**
+	 * Runs the action on the worker that owns the order and waits for it, within
+	 * the event of the operation
+	 *
+	 * @param <T>
+	 * @param operation
+	 * @param orderId
+	 * @param action
+	 * @return
+	 */
+	private <T> T call(String operation, UUID orderId, BiFunction<OrderSlice, PancakeOperationEvent, T> action) {
+		var event = PancakeOperationEvent.begin(operation, orderId);
+		try {
+			event.waitLock();
+			var index = owner(orderId);
+			return submit(index, slice -> action.apply(slice, event), event).await(workers[index]);
+		} finally {
+			event.finish();
+		}
+	}
+
+	/**
+	 * Runs the action on every worker and waits for all of them
+	 *
+	 * @param <T>
+	 * @param operation name of the event, or null for none
+	 * @param action
+	 * @return the results, by worker
+	 */
+	private <T> List<T> broadcast(String operation, Function<OrderSlice, T> action) {
+		var event = operation == null ? null : PancakeOperationEvent.begin(operation, null);
+		try {
+			if (event != null) {
+				event.waitLock();
+			}
+			var calls = new ArrayList<Call<T>>(workers.length);
+			for (int i = 0; i < workers.length; i++) {
+				calls.add(submit(i, action, null));
+			}
+			var results = new ArrayList<T>(workers.length);
+			for (int i = 0; i < workers.length; i++) {
+				results.add(calls.get(i).await(workers[i]));
+			}
+			if (event != null) {
+				event.locked();
+				event.succeeded(0);
+			}
+			return results;
+		} finally {
+			if (event != null) {
+				event.finish();
+			}
+		}
+	}
+
+	/**
+	 * Hands the call to the worker, or runs it inline when a listener on that
+	 * worker calls back into its own slice
+	 *
+	 * @param <T>
+	 * @param index
+	 * @param action
+	 * @param event  marked as locked when the worker starts the call, or null
+	 * @return
+	 */
+	private <T> Call<T> submit(int index, Function<OrderSlice, T> action, PancakeOperationEvent event) {
+		if (closed) {
+			throw new IllegalStateException("service closed");
+		}
+		var worker = workers[index];
+		var call = new Call<>(action, event, Thread.currentThread());
+		if (Thread.currentThread() instanceof Worker current && current.owner() == this) {
+			if (current != worker) {
+				throw new IllegalStateException(String.format("%s cannot call into an order owned by %s", current.getName(), worker.getName()));
+			}
+			call.run(worker.slice);
+			return call;
+		}
+		var producer = producers.get().get(index);
+		while (!producer.queue.offer(call)) {
+			Thread.onSpinWait();
+		}
+		if (!producer.scheduled.getAndSet(true)) {
+			worker.ready.offer(producer);
+		}
+		if (worker.sleeping) {
+			LockSupport.unpark(worker);
+		}
+		return call;
+	}
+
+	/**
+	 * Creates the queues of the calling thread, one per worker
+	 *
+	 * @return
+	 */
+	private List<Producer> register() {
+		var result = new ArrayList<Producer>(workers.length);
+		for (int i = 0; i < workers.length; i++) {
+			result.add(new Producer(new SpscQueue<>(QUEUE_CAPACITY), new AtomicBoolean()));
+		}
+		return result;
+	}
+
+	private int owner(UUID orderId) {
+		var hash = orderId == null ? 0 : orderId.hashCode();
+		return Math.floorMod(hash ^ (hash >>> 16), workers.length);
+	}
+
+	/**
+	 * Queue of one calling thread to one worker. The scheduled flag is set while
+	 * the queue is on the ready queue of the worker
+	 */
+	private record Producer(SpscQueue<Call<?>> queue, AtomicBoolean scheduled) {
+	}
+
+	/**
+	 * Pending call. The result is written before the volatile done flag, and the
+	 * caller is unparked only if it went to sleep
+	 *
+	 * @param <T>
+	 */
+	private static class Call<T> {
+		private final Function<OrderSlice, T> action;
+		private final PancakeOperationEvent event;
+		private final Thread caller;
+		private volatile boolean done;
+		private volatile boolean parked;
+		private T result;
+		private RuntimeException error;
+
+		private Call(Function<OrderSlice, T> action, PancakeOperationEvent event, Thread caller) {
+			this.action = action;
+			this.event = event;
+			this.caller = caller;
+		}
+
+		private void run(OrderSlice slice) {
+			if (event != null) {
+				event.locked();
+			}
+			try {
+				result = action.apply(slice);
+			} catch (RuntimeException e) {
+				error = e;
+			}
+			done = true;
+			if (parked) {
+				LockSupport.unpark(caller);
+			}
+		}
+
+		private T await(Worker worker) {
+			for (int i = 0; !done; i++) {
+				if (i < SPINS) {
+					Thread.onSpinWait();
+				} else if (i < SPINS + YIELDS) {
+					Thread.yield();
+				} else {
+					parked = true;
+					if (!done) {
+						LockSupport.parkNanos(this, PARK_NANOS);
+					}
+					if (!done && !worker.isAlive()) {
+						throw new IllegalStateException("service closed");
+					}
+				}
+			}
+			if (error != null) {
+				throw error;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Worker thread and the slice it owns
+	 */
+	private class Worker extends Thread {
+		private final OrderSlice slice;
+		private final ConcurrentLinkedQueue<Producer> ready = new ConcurrentLinkedQueue<>();
+		private volatile boolean sleeping;
+
+		private Worker(OrderSlice slice, String name) {
+			super(name);
+			this.slice = slice;
+			setDaemon(true);
+		}
+
+		private ShardedPancakeService owner() {
+			return ShardedPancakeService.this;
+		}
+
+		@Override
+		public void run() {
+			for (int idle = 0; !closed; ) {
+				if (drain()) {
+					idle = 0;
+				} else if (++idle < SPINS) {
+					Thread.onSpinWait();
+				} else {
+					sleeping = true;
+					if (!drain() && !closed) {
+						LockSupport.parkNanos(this, PARK_NANOS);
+					}
+					sleeping = false;
+					idle = 0;
+				}
+			}
+			drain();
+		}
+
+		/**
+		 * Runs the pending calls of the scheduled producers. The flag is cleared
+		 * before the queue is drained, so a call offered after the last poll
+		 * schedules the producer again
+		 *
+		 * @return whether any call was run
+		 */
+		private boolean drain() {
+			var worked = false;
+			for (var producer = ready.poll(); producer != null; producer = ready.poll()) {
+				producer.scheduled.getAndSet(false);
+				for (var call = producer.queue.poll(); call != null; call = producer.queue.poll()) {
+					call.run(slice);
+					worked = true;
+				}
+			}
+			return worked;
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+package org.pancakelab.service.sharded;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single-producer single-consumer ring buffer.
+ *
+ * The producer only writes the tail and the consumer only writes the head, each
+ * on its own padded cache line. Both sides keep a cached copy of the other
+ * index next to their own, and read the shared one only when the cached copy
+ * says the queue is full or empty.
+ *
+ * @param <T>
+ */
+class SpscQueue<T> {
+
+	private final Object[] buffer;
+	private final int mask;
+	private final PaddedIndex head = new PaddedIndex();
+	private final PaddedIndex tail = new PaddedIndex();
+
+	SpscQueue(int capacity) {
+		if (Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("capacity must be a power of two");
+		}
+		this.buffer = new Object[capacity];
+		this.mask = capacity - 1;
+	}
+
+	/**
+	 * Adds a value, from the producer thread only
+	 *
+	 * @param value
+	 * @return false if the queue is full
+	 */
+	boolean offer(T value) {
+		var t = tail.getPlain();
+		if (t - tail.cached >= buffer.length) {
+			tail.cached = head.get();
+			if (t - tail.cached >= buffer.length) {
+				return false;
+			}
+		}
+		buffer[(int) t & mask] = value;
+		// volatile, so that the consumer going to sleep sees the value
+		tail.set(t + 1);
+		return true;
+	}
+
+	/**
+	 * Removes the oldest value, from the consumer thread only
+	 *
+	 * @return null if the queue is empty
+	 */
+	@SuppressWarnings("unchecked")
+	T poll() {
+		var h = head.getPlain();
+		if (h >= head.cached) {
+			head.cached = tail.get();
+			if (h >= head.cached) {
+				return null;
+			}
+		}
+		var index = (int) h & mask;
+		var value = (T) buffer[index];
+		buffer[index] = null;
+		head.setRelease(h + 1);
+		return value;
+	}
+
+	boolean isEmpty() {
+		return head.get() >= tail.get();
+	}
+
+	/**
+	 * Index and the cached copy of the other index, written by the same thread,
+	 * followed by a cache line of padding
+	 */
+	@SuppressWarnings({ "serial", "unused" })
+	private static class PaddedIndex extends AtomicLong {
+		private long cached;
+		private long p1, p2, p3, p4, p5, p6, p7;
+	}
+
+}
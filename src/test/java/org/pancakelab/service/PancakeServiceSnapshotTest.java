@@ -0,0 +1,80 @@
+package org.pancakelab.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class PancakeServiceSnapshotTest {
+
+	private static final String DARK_CHOCOLATE_PANCAKE_DESCRIPTION = "Delicious pancake with dark chocolate!";
+	private static final String MILK_CHOCOLATE_PANCAKE_DESCRIPTION = "Delicious pancake with milk chocolate!";
+
+	private PancakeService service;
+
+	@BeforeEach
+	public void beforeTest() {
+		service = new PancakeService(new OrderLog());
+	}
+
+	@Test
+	public void testViewIsNotChangedByLaterWrites() {
+		var order = service.createOrder(10, 20);
+		service.addDarkChocolatePancake(order.getId(), 2);
+		var view = service.viewOrder(order.getId());
+
+		service.addMilkChocolatePancake(order.getId(), 1);
+		service.removePancakes(DARK_CHOCOLATE_PANCAKE_DESCRIPTION, order.getId(), 2);
+
+		assertEquals(List.of(DARK_CHOCOLATE_PANCAKE_DESCRIPTION, DARK_CHOCOLATE_PANCAKE_DESCRIPTION), view);
+		assertEquals(List.of(MILK_CHOCOLATE_PANCAKE_DESCRIPTION), service.viewOrder(order.getId()));
+		assertThrows(UnsupportedOperationException.class, () -> view.add(MILK_CHOCOLATE_PANCAKE_DESCRIPTION));
+	}
+
+	@Test
+	public void testReadersSeeWholeVersionsWhileWriting() throws InterruptedException {
+		var order = service.createOrder(10, 20);
+		var done = new AtomicBoolean();
+		var failure = new AtomicReference<String>();
+
+		var reader = new Thread(() -> {
+			while (!done.get()) {
+				var view = service.viewOrder(order.getId());
+				if (view.size() % 3 != 0) {
+					failure.set("partial write observed: " + view.size());
+				}
+			}
+		});
+		reader.start();
+		for (int i = 0; i < 1_000; i++) {
+			service.addDarkChocolatePancake(order.getId(), 3);
+			if (i % 10 == 9) {
+				service.removePancakes(DARK_CHOCOLATE_PANCAKE_DESCRIPTION, order.getId(), 3);
+			}
+		}
+		done.set(true);
+		reader.join();
+
+		assertEquals(null, failure.get());
+		assertEquals(2_700, service.viewOrder(order.getId()).size());
+	}
+
+	@Test
+	public void testDeliverReturnsLastVersion() {
+		var order = service.createOrder(10, 20);
+		service.addMilkChocolatePancake(order.getId(), 2);
+		service.prepareOrder(order.getId());
+
+		var delivered = service.deliverOrder(order.getId());
+
+		assertEquals(List.of(MILK_CHOCOLATE_PANCAKE_DESCRIPTION, MILK_CHOCOLATE_PANCAKE_DESCRIPTION), delivered.pancakesToDeliver());
+		assertTrue(service.viewOrder(order.getId()).isEmpty());
+	}
+
+}
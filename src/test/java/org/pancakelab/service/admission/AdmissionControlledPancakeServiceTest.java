@@ -0,0 +1,104 @@
+package org.pancakelab.service.admission;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.pancakelab.service.OrderLog;
+
+public class AdmissionControlledPancakeServiceTest {
+
+	private static final AdmissionPolicy POLICY = new AdmissionPolicy(0.001, 3, 10, 2, 20, Duration.ofSeconds(1));
+
+	@Test
+	public void testRateLimitIsPerBuilding() {
+		var service = new AdmissionControlledPancakeService(new OrderLog(), POLICY);
+		var order = service.createOrder(10, 1);
+		service.addMilkChocolatePancake(order.getId(), 1);
+		service.createOrder(10, 2);
+
+		assertThrows(AdmissionRejectedException.class, () -> service.createOrder(10, 3));
+		assertThrows(AdmissionRejectedException.class, () -> service.viewOrder(order.getId()));
+		service.createOrder(11, 1);
+
+		var stats = service.admissionStats();
+		assertEquals(4, stats.admitted());
+		assertEquals(2, stats.rejectedByRate());
+		assertEquals(0, stats.inFlight());
+	}
+
+	@Test
+	public void testCancelAndDeliverSkipRateLimit() {
+		var service = new AdmissionControlledPancakeService(new OrderLog(), POLICY);
+		var delivered = service.createOrder(10, 1);
+		var cancelled = service.createOrder(10, 2);
+		service.prepareOrder(delivered.getId());
+		assertThrows(AdmissionRejectedException.class, () -> service.createOrder(10, 3));
+
+		assertEquals(delivered.getId(), service.deliverOrder(delivered.getId()).order().getId());
+		service.cancelOrder(cancelled.getId());
+		assertEquals(List.of(), service.viewOrder(cancelled.getId()));
+	}
+
+	@Test
+	public void testDropsRefilledBuckets() {
+		var fast = new AdmissionControlledPancakeService(new OrderLog(), new AdmissionPolicy(1e12, 1, 10, 2, 20, Duration.ofSeconds(1)));
+		var slow = new AdmissionControlledPancakeService(new OrderLog(), POLICY);
+		for (int building = 0; building <= AdmissionControlledPancakeService.MAX_BUCKETS; building++) {
+			fast.createOrder(building, 1);
+			slow.createOrder(building, 1);
+		}
+
+		assertTrue(fast.bucketCount() < AdmissionControlledPancakeService.MAX_BUCKETS, Integer.toString(fast.bucketCount()));
+		assertEquals(AdmissionControlledPancakeService.MAX_BUCKETS + 1, slow.bucketCount());
+		slow.createOrder(0, 2);
+		slow.createOrder(0, 3);
+		assertThrows(AdmissionRejectedException.class, () -> slow.createOrder(0, 4));
+	}
+
+	@Test
+	public void testLowerPrioritiesAreShedFirst() {
+		var limit = new AdaptiveConcurrencyLimit(10, 2, 20, Duration.ofSeconds(1).toNanos());
+		for (int i = 0; i < 7; i++) {
+			assertTrue(limit.tryAcquire(AdmissionPriority.LOW));
+		}
+		assertFalse(limit.tryAcquire(AdmissionPriority.LOW));
+		assertTrue(limit.tryAcquire(AdmissionPriority.NORMAL));
+		assertTrue(limit.tryAcquire(AdmissionPriority.NORMAL));
+		assertFalse(limit.tryAcquire(AdmissionPriority.NORMAL));
+		assertTrue(limit.tryAcquire(AdmissionPriority.CRITICAL));
+		assertFalse(limit.tryAcquire(AdmissionPriority.CRITICAL));
+		assertEquals(10, limit.getInFlight());
+	}
+
+	@Test
+	public void testLimitAdaptsToLatency() {
+		var target = Duration.ofMillis(10).toNanos();
+		var limit = new AdaptiveConcurrencyLimit(10, 2, 20, target);
+		assertTrue(limit.tryAcquire(AdmissionPriority.CRITICAL));
+		limit.release(target * 2);
+		assertEquals(9, limit.getLimit());
+		for (int i = 0; i < 9; i++) {
+			assertTrue(limit.tryAcquire(AdmissionPriority.CRITICAL));
+			limit.release(target * 2);
+		}
+		assertEquals(9, limit.getLimit());
+		for (int i = 0; i < 100; i++) {
+			assertTrue(limit.tryAcquire(AdmissionPriority.CRITICAL));
+			limit.release(target * 2);
+		}
+		assertEquals(2, limit.getLimit());
+		for (int i = 0; i < 100; i++) {
+			assertTrue(limit.tryAcquire(AdmissionPriority.CRITICAL));
+			limit.release(target / 2);
+		}
+		assertTrue(limit.getLimit() > 10);
+		assertTrue(limit.getLimit() <= 20);
+	}
+
+}
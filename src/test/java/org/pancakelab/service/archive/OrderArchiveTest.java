@@ -0,0 +1,111 @@
+package org.pancakelab.service.archive;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.pancakelab.model.Order;
+import org.pancakelab.model.pancakes.DarkChocolatePancake;
+import org.pancakelab.model.pancakes.MilkChocolatePancake;
+import org.pancakelab.service.OrderLog;
+import org.pancakelab.service.PancakeService;
+
+public class OrderArchiveTest {
+
+	private static final String DARK_CHOCOLATE_PANCAKE_DESCRIPTION = "Delicious pancake with dark chocolate!";
+	private static final String MILK_CHOCOLATE_PANCAKE_DESCRIPTION = "Delicious pancake with milk chocolate!";
+
+	@TempDir
+	public Path directory;
+
+	@Test
+	public void testArchivesDeliveredAndCancelledOrders() {
+		try (var archive = new OrderArchive(directory, 4)) {
+			var service = new PancakeService(new OrderLog());
+			service.addListener(archive);
+
+			var delivered = service.createOrder(10, 1);
+			service.addDarkChocolatePancake(delivered.getId(), 2);
+			service.addMilkChocolatePancake(delivered.getId(), 1);
+			service.prepareOrder(delivered.getId());
+			service.deliverOrder(delivered.getId());
+
+			var cancelled = service.createOrder(11, 1);
+			service.addMilkChocolatePancake(cancelled.getId(), 3);
+			service.cancelOrder(cancelled.getId());
+			archive.sync();
+
+			assertEquals(2, archive.count());
+			assertEquals(Map.of(10, 1L, 11, 1L), archive.countByBuilding());
+			assertEquals(Map.of(ArchivedStatus.DELIVERED, 1L, ArchivedStatus.CANCELLED, 1L), archive.countByStatus());
+			assertEquals(Map.of(DARK_CHOCOLATE_PANCAKE_DESCRIPTION, 2L, MILK_CHOCOLATE_PANCAKE_DESCRIPTION, 4L), archive.countByRecipe());
+		}
+	}
+
+	@Test
+	public void testDeliveriesNeverWaitForTheArchive() {
+		var archive = new OrderArchive(directory, 4, 1);
+		var service = new PancakeService(new OrderLog());
+		service.addListener(archive);
+		var queued = 0;
+		for (int i = 0; i < 1_000; i++) {
+			queued += archive.append(new Order(1, i), List.of(new DarkChocolatePancake()), ArchivedStatus.DELIVERED, 0) ? 1 : 0;
+		}
+		archive.close();
+
+		var order = service.createOrder(10, 1);
+		service.prepareOrder(order.getId());
+		service.deliverOrder(order.getId());
+		assertEquals(List.of(), service.viewOrder(order.getId()));
+		assertEquals(1_001 - queued, archive.dropped());
+		assertEquals(null, archive.failure());
+	}
+
+	@Test
+	public void testStagedOrdersSurviveWithoutClose() {
+		var archive = new OrderArchive(directory, 100);
+		archive.append(new Order(1, 1), List.of(new DarkChocolatePancake()), ArchivedStatus.DELIVERED, 0);
+		archive.append(new Order(2, 1), List.of(new MilkChocolatePancake()), ArchivedStatus.CANCELLED, 0);
+		archive.sync();
+
+		try (var reopened = new OrderArchive(directory, 100)) {
+			assertEquals(2, reopened.count());
+			assertEquals(Map.of(DARK_CHOCOLATE_PANCAKE_DESCRIPTION, 1L, MILK_CHOCOLATE_PANCAKE_DESCRIPTION, 1L), reopened.countByRecipe());
+		}
+	}
+
+	@Test
+	public void testQueriesSpanBlocksAndReopen() throws Exception {
+		var day = LocalDate.of(2024, 3, 1);
+		var millis = day.atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+		try (var archive = new OrderArchive(directory, 3)) {
+			for (int i = 0; i < 10; i++) {
+				var pancakes = i % 2 == 0 ? List.of(new DarkChocolatePancake(), new DarkChocolatePancake()) : List.of(new MilkChocolatePancake());
+				archive.append(new Order(i % 3, i), List.copyOf(pancakes), ArchivedStatus.DELIVERED, millis + i * 43_200_000L);
+			}
+		}
+
+		try (var files = Files.list(directory)) {
+			assertEquals(4, files.filter(file -> file.toString().endsWith(".col")).count());
+		}
+
+		try (var archive = new OrderArchive(directory, 3)) {
+			assertEquals(10, archive.count());
+			assertEquals(Map.of(0, 4L, 1, 3L, 2, 3L), archive.countByBuilding());
+			assertEquals(Map.of(DARK_CHOCOLATE_PANCAKE_DESCRIPTION, 10L, MILK_CHOCOLATE_PANCAKE_DESCRIPTION, 5L), archive.countByRecipe());
+			var byDay = archive.countByDay(ZoneOffset.UTC);
+			assertEquals(5, byDay.size());
+			assertEquals(2L, byDay.get(day));
+			assertEquals(2L, byDay.get(day.plusDays(4)));
+			assertEquals(Map.of(ArchivedStatus.DELIVERED, 10L, ArchivedStatus.CANCELLED, 0L), archive.countByStatus());
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+package org.pancakelab.service.capture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.pancakelab.model.pancakes.PancakeIngredient;
+import org.pancakelab.service.OrderLog;
+import org.pancakelab.service.PancakeService;
+
+public class TrafficReplayerTest {
+
+	@TempDir
+	public Path directory;
+
+	@Test
+	public void testCapturesCallsWithArguments() throws IOException {
+		var file = directory.resolve("traffic.cap");
+		var service = new CapturingPancakeService(new OrderLog());
+		service.createOrder(1, 1);
+		service.startCapture(file);
+		var order = service.createOrder(7, 12);
+		service.addDarkChocolatePancake(order.getId(), 3);
+		service.createCustom(order.getId());
+		service.addIngredient(order.getId(), PancakeIngredient.MUSTARD);
+		service.finishCustom(order.getId());
+		var description = service.viewOrder(order.getId()).get(0);
+		service.removePancakes(description, order.getId(), 1);
+		assertThrows(IllegalStateException.class, () -> service.addMilkChocolatePancake(UUID.randomUUID(), 1));
+		service.listCompletedOrders();
+		assertEquals(9, service.stopCapture());
+		assertEquals(0, service.droppedCalls());
+		assertFalse(service.isCapturing());
+		service.cancelOrder(order.getId());
+
+		var calls = CaptureReader.read(file);
+		assertEquals(9, calls.size());
+		var create = calls.get(0);
+		assertEquals(CapturedOperation.CREATE_ORDER, create.operation());
+		assertEquals(order.getId(), create.orderId());
+		assertEquals(7, create.building());
+		assertEquals(12, create.room());
+		assertEquals(3, calls.get(1).count());
+		assertEquals(PancakeIngredient.MUSTARD, calls.get(3).ingredient());
+		assertEquals(description, calls.get(6).description());
+		assertEquals(CapturedOperation.ADD_MILK_CHOCOLATE, calls.get(7).operation());
+		assertEquals(null, calls.get(8).orderId());
+		for (int i = 1; i < calls.size(); i++) {
+			assertEquals(i, calls.get(i).sequence());
+			assertTrue(calls.get(i).nanos() >= calls.get(i - 1).nanos());
+		}
+	}
+
+	@Test
+	public void testReferenceTablesWrapAround() throws IOException {
+		var file = directory.resolve("traffic.cap");
+		var orders = new ArrayList<UUID>();
+		try (var writer = new CaptureWriter(file, CaptureWriter.MAX_REFS * 2)) {
+			for (int i = 0; i < CaptureWriter.MAX_REFS + 10; i++) {
+				orders.add(UUID.randomUUID());
+			}
+			orders.add(orders.get(0));
+			orders.add(orders.get(CaptureWriter.MAX_REFS + 5));
+			for (int i = 0; i < orders.size(); i++) {
+				writer.append(new CapturedCall(i, i, 1, CapturedOperation.VIEW_ORDER, orders.get(i), 0, 0, 0, null, null));
+			}
+		}
+
+		var calls = CaptureReader.read(file);
+		assertEquals(orders.size(), calls.size());
+		for (int i = 0; i < orders.size(); i++) {
+			assertEquals(orders.get(i), calls.get(i).orderId());
+		}
+	}
+
+	@Test
+	public void testFullQueueDropsCalls() throws IOException {
+		var file = directory.resolve("traffic.cap");
+		var writer = new CaptureWriter(file, 1);
+		for (int i = 0; i < 10_000; i++) {
+			writer.append(new CapturedCall(i, i, 1, CapturedOperation.LIST_COMPLETED_ORDERS, null, 0, 0, 0, null, null));
+		}
+		writer.close();
+
+		assertEquals(10_000, writer.written() + writer.dropped());
+		assertEquals(writer.written(), CaptureReader.read(file).size());
+	}
+
+	@Test
+	public void testReplayKeepsPerOrderOrdering() throws Exception {
+		var file = directory.resolve("traffic.cap");
+		var service = new CapturingPancakeService(new OrderLog());
+		service.startCapture(file);
+		var threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			var building = t;
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < 50; i++) {
+					var orderId = service.createOrder(building, i).getId();
+					service.addMilkChocolatePancake(orderId, 1 + i % 3);
+					service.addDarkChocolatePancake(orderId, 1);
+					service.completeOrder(orderId);
+					if (i % 5 == 0) {
+						service.cancelOrder(orderId);
+					} else {
+						service.prepareOrder(orderId);
+						if (i % 2 == 0) {
+							service.deliverOrder(orderId);
+						}
+					}
+				}
+			}));
+		}
+		threads.forEach(Thread::start);
+		for (var thread : threads) {
+			thread.join();
+		}
+		service.stopCapture();
+
+		var calls = CaptureReader.read(file);
+		var target = new PancakeService(new OrderLog());
+		var report = new TrafficReplayer(calls, 3).replay(target, TrafficReplayer.MAX_SPEED);
+		assertEquals(calls.size(), report.calls());
+		assertEquals(0, report.errors());
+		assertEquals(calls.size(), report.latency().count());
+		assertEquals(calls.size(), report.responseTime().count());
+		assertEquals(200, report.latencies().get(CapturedOperation.CREATE_ORDER).count());
+		assertTrue(report.throughput() > 0);
+		assertEquals(service.listPreparedOrders().size(), target.listPreparedOrders().size());
+		assertEquals(service.listCompletedOrders().size(), target.listCompletedOrders().size());
+
+		var pancakes = new HashMap<String, Integer>();
+		for (var orderId : target.listPreparedOrders()) {
+			target.viewOrder(orderId).forEach(description -> pancakes.merge(description, 1, Integer::sum));
+		}
+		var captured = new HashMap<String, Integer>();
+		for (var orderId : service.listPreparedOrders()) {
+			service.viewOrder(orderId).forEach(description -> captured.merge(description, 1, Integer::sum));
+		}
+		assertEquals(captured, pancakes);
+	}
+
+	@Test
+	public void testReplaySpeed() throws Exception {
+		var file = directory.resolve("traffic.cap");
+		var service = new CapturingPancakeService(new OrderLog());
+		service.startCapture(file);
+		var orderId = service.createOrder(1, 1).getId();
+		Thread.sleep(200);
+		service.addDarkChocolatePancake(orderId, 1);
+		service.stopCapture();
+		var replayer = new TrafficReplayer(CaptureReader.read(file), 2);
+
+		var original = replayer.replay(new PancakeService(new OrderLog()), 1);
+		assertTrue(original.elapsedNanos() >= 200_000_000L);
+		assertEquals(2, original.responseTime().count());
+		assertTrue(original.responseTime().max() >= original.latency().max());
+		var faster = replayer.replay(new PancakeService(new OrderLog()), 4);
+		assertTrue(faster.elapsedNanos() >= 50_000_000L);
+		assertTrue(faster.elapsedNanos() < original.elapsedNanos());
+		var max = replayer.replay(new PancakeService(new OrderLog()), TrafficReplayer.MAX_SPEED);
+		assertTrue(max.elapsedNanos() < 50_000_000L);
+		assertEquals(0, max.errors());
+	}
+
+}
@@ -0,0 +1,104 @@
+package org.pancakelab.service.index;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+import org.pancakelab.model.pancakes.PancakeIngredient;
+import org.pancakelab.service.OrderLog;
+import org.pancakelab.service.PancakeService;
+
+public class IngredientIndexTest {
+
+	@Test
+	public void testIndexesPredefinedAndCustomPancakes() {
+		var service = new PancakeService(new OrderLog());
+		var index = new IngredientIndex();
+		service.addListener(index);
+
+		var hazelnuts = service.createOrder(1, 1).getId();
+		service.addMilkChocolateHazelnutsPancake(hazelnuts, 2);
+		var custom = service.createOrder(1, 2).getId();
+		service.createCustom(custom);
+		service.addIngredient(custom, PancakeIngredient.HAZLNUTS);
+		service.addIngredient(custom, PancakeIngredient.MUSTARD);
+		assertEquals(Set.of(hazelnuts), index.ordersWith(PancakeIngredient.HAZLNUTS));
+		service.finishCustom(custom);
+		var dark = service.createOrder(2, 1).getId();
+		service.addDarkChocolatePancake(dark, 1);
+
+		assertEquals(Set.of(hazelnuts, custom), index.ordersWith(PancakeIngredient.HAZLNUTS));
+		assertEquals(2, index.count(PancakeIngredient.HAZLNUTS, hazelnuts));
+		assertEquals(Set.of(hazelnuts, custom, dark), index.ordersWithAny(List.of(PancakeIngredient.HAZLNUTS, PancakeIngredient.DARK_CHOCOLATE)));
+		assertEquals(Set.of(custom), index.ordersWithAll(List.of(PancakeIngredient.HAZLNUTS, PancakeIngredient.MUSTARD)));
+		assertEquals(Set.of(), index.ordersWithAll(List.of(PancakeIngredient.DARK_CHOCOLATE, PancakeIngredient.MUSTARD)));
+		assertEquals(Set.of(), index.ordersWithAny(List.of()));
+	}
+
+	@Test
+	public void testRemovalAndFinishedOrdersUpdateTheIndex() {
+		var service = new PancakeService(new OrderLog());
+		var index = new IngredientIndex();
+		service.addListener(index);
+
+		var orderId = service.createOrder(1, 1).getId();
+		service.addMilkChocolateHazelnutsPancake(orderId, 2);
+		service.addMilkChocolatePancake(orderId, 1);
+		var description = service.viewOrder(orderId).get(0);
+		service.removePancakes(description, orderId, 1);
+		assertEquals(1, index.count(PancakeIngredient.HAZLNUTS, orderId));
+		assertEquals(2, index.count(PancakeIngredient.MILK_CHOCOLATE, orderId));
+		service.removePancakes(description, orderId, 5);
+		assertEquals(Set.of(), index.ordersWith(PancakeIngredient.HAZLNUTS));
+		assertEquals(Set.of(orderId), index.ordersWith(PancakeIngredient.MILK_CHOCOLATE));
+
+		service.cancelOrder(orderId);
+		assertEquals(Set.of(), index.ordersWith(PancakeIngredient.MILK_CHOCOLATE));
+		assertThrows(IllegalStateException.class, () -> service.addMilkChocolatePancake(orderId, 1));
+
+		var delivered = service.createOrder(1, 1).getId();
+		service.addDarkChocolateWhippedCreamHazelnutsPancake(delivered, 1);
+		service.completeOrder(delivered);
+		service.prepareOrder(delivered);
+		service.deliverOrder(delivered);
+		assertEquals(Set.of(), index.ordersWithAny(List.of(PancakeIngredient.values())));
+	}
+
+	@Test
+	public void testConcurrentOrdersMatchTheirContents() throws InterruptedException {
+		var service = new PancakeService(new OrderLog());
+		var index = new IngredientIndex();
+		service.addListener(index);
+		var open = ConcurrentHashMap.<UUID>newKeySet();
+		var threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < 200; i++) {
+					var orderId = service.createOrder(1, i).getId();
+					service.addMilkChocolateHazelnutsPancake(orderId, 1);
+					service.addDarkChocolatePancake(orderId, 1);
+					if (i % 3 == 0) {
+						service.cancelOrder(orderId);
+					} else {
+						open.add(orderId);
+					}
+				}
+			}));
+		}
+		threads.forEach(Thread::start);
+		for (var thread : threads) {
+			thread.join();
+		}
+		assertEquals(open, index.ordersWith(PancakeIngredient.HAZLNUTS));
+		assertEquals(open, index.ordersWithAll(List.of(PancakeIngredient.HAZLNUTS, PancakeIngredient.DARK_CHOCOLATE)));
+		assertTrue(index.ordersWith(PancakeIngredient.MUSTARD).isEmpty());
+	}
+
+}
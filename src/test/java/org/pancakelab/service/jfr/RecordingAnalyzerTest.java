@@ -0,0 +1,69 @@
+package org.pancakelab.service.jfr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.pancakelab.service.OrderLog;
+import org.pancakelab.service.PancakeService;
+
+import jdk.jfr.EventType;
+import jdk.jfr.Recording;
+
+public class RecordingAnalyzerTest {
+
+	@TempDir
+	public Path directory;
+
+	@Test
+	public void testEventsAreDisabledByDefault() {
+		assertFalse(EventType.getEventType(PancakeOperationEvent.class).isEnabled());
+		assertFalse(EventType.getEventType(OrderLogWriteEvent.class).isEnabled());
+	}
+
+	@Test
+	public void testSummarizesOperationsAndLogWrites() throws IOException {
+		var file = directory.resolve("pancakes.jfr");
+		try (var recording = new Recording()) {
+			recording.enable(PancakeOperationEvent.class).withoutThreshold();
+			recording.enable(OrderLogWriteEvent.class).withoutThreshold();
+			recording.start();
+
+			var service = new PancakeService(new OrderLog());
+			var order = service.createOrder(10, 1);
+			service.addDarkChocolatePancake(order.getId(), 2);
+			service.addDarkChocolatePancake(order.getId(), 1);
+			service.viewOrder(order.getId());
+			service.deliverOrder(order.getId());
+			try {
+				service.addMilkChocolatePancake(UUID.randomUUID(), 1);
+			} catch (IllegalStateException e) {
+				// recorded as failed
+			}
+
+			recording.stop();
+			recording.dump(file);
+		}
+
+		var summaries = RecordingAnalyzer.analyze(file);
+		var add = summaries.stream().filter(summary -> summary.operation().equals("addDarkChocolatePancake")).findFirst().orElseThrow();
+		assertEquals(2, add.count());
+		assertEquals(0, add.failures());
+		var failed = summaries.stream().filter(summary -> summary.operation().equals("addMilkChocolatePancake")).findFirst().orElseThrow();
+		assertEquals(1, failed.failures());
+		var logWrites = summaries.stream().filter(summary -> summary.event().equals(OrderLogWriteEvent.NAME)).mapToLong(OperationSummary::count).sum();
+		assertEquals(3, logWrites);
+
+		var report = RecordingAnalyzer.format(summaries);
+		assertTrue(report.contains("Latency"));
+		assertTrue(report.contains("Contention"));
+		assertTrue(report.contains("log.addPancake"));
+	}
+
+}
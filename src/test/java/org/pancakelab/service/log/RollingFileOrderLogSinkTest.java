@@ -0,0 +1,155 @@
+package org.pancakelab.service.log;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.pancakelab.service.OrderLog;
+import org.pancakelab.service.PancakeService;
+
+public class RollingFileOrderLogSinkTest {
+
+	@TempDir
+	public Path directory;
+
+	@Test
+	public void testRotatesBySizeAndCompressesClosedSegments() throws IOException {
+		var first = UUID.randomUUID();
+		var second = UUID.randomUUID();
+		try (var sink = new RollingFileOrderLogSink(directory, 256, Duration.ofHours(1), 64)) {
+			for (int i = 0; i < 20; i++) {
+				sink.write(first, "first line " + i);
+				sink.write(second, "second line " + i);
+			}
+		}
+
+		assertTrue(count(".log.gz") > 1);
+		assertEquals(count(".log.gz"), count(".idx"));
+		assertEquals(0, count(".log"));
+	}
+
+	@Test
+	public void testHistoryReadsOnlyTheOrderAcrossSegments() {
+		var first = UUID.randomUUID();
+		var second = UUID.randomUUID();
+		var expected = new ArrayList<String>();
+		try (var sink = new RollingFileOrderLogSink(directory, 200, Duration.ofHours(1), 32)) {
+			for (int i = 0; i < 30; i++) {
+				sink.write(first, "first line " + i);
+				sink.write(second, "second line " + i);
+				expected.add("first line " + i);
+			}
+			assertEquals(expected, sink.history(first));
+			assertEquals(List.of(), sink.history(UUID.randomUUID()));
+		}
+	}
+
+	@Test
+	public void testHistoryFindsEachOfManyOrdersInSegment() {
+		var orders = new ArrayList<UUID>();
+		for (int i = 0; i < 100; i++) {
+			orders.add(UUID.randomUUID());
+		}
+		try (var sink = new RollingFileOrderLogSink(directory, 4096, Duration.ofHours(1), 128)) {
+			for (int line = 0; line < 3; line++) {
+				for (var orderId : orders) {
+					sink.write(orderId, orderId + " line " + line);
+				}
+			}
+			for (var orderId : orders) {
+				assertEquals(List.of(orderId + " line 0", orderId + " line 1", orderId + " line 2"), sink.history(orderId));
+			}
+		}
+	}
+
+	@Test
+	public void testRotatesByAge() throws IOException {
+		var orderId = UUID.randomUUID();
+		try (var sink = new RollingFileOrderLogSink(directory, Long.MAX_VALUE, Duration.ZERO)) {
+			sink.write(orderId, "one");
+			sink.write(orderId, "two");
+			sink.write(orderId, "three");
+			assertEquals(List.of("one", "two", "three"), sink.history(orderId));
+		}
+		assertEquals(3, count(".idx"));
+	}
+
+	@Test
+	public void testHistorySurvivesRestart() {
+		var orderId = UUID.randomUUID();
+		try (var sink = new RollingFileOrderLogSink(directory, 128, Duration.ofHours(1))) {
+			sink.write(orderId, "before restart");
+		}
+		try (var sink = new RollingFileOrderLogSink(directory, 128, Duration.ofHours(1))) {
+			sink.write(orderId, "after restart");
+			assertEquals(List.of("before restart", "after restart"), sink.history(orderId));
+		}
+	}
+
+	@Test
+	public void testKeepsOnlyTheNewestSegments() throws IOException {
+		var orderId = UUID.randomUUID();
+		try (var sink = new RollingFileOrderLogSink(directory, Long.MAX_VALUE, Duration.ZERO, 64, 2)) {
+			for (int i = 0; i < 5; i++) {
+				sink.write(orderId, "line " + i);
+			}
+		}
+		assertEquals(2, count(".idx"));
+		assertEquals(2, count(".log.gz"));
+		try (var sink = new RollingFileOrderLogSink(directory, Long.MAX_VALUE, Duration.ZERO, 64, 2)) {
+			assertEquals(List.of("line 3", "line 4"), sink.history(orderId));
+		}
+	}
+
+	@Test
+	public void testReportsCompressionFailureAndKeepsPlainSegment() throws IOException {
+		var orderId = UUID.randomUUID();
+		Files.createDirectory(directory.resolve("orders-0000000001.log.gz.tmp"));
+		var sink = new RollingFileOrderLogSink(directory, Long.MAX_VALUE, Duration.ZERO);
+		sink.write(orderId, "one");
+		// thrown by the write when the compression fails before it returns
+		assertThrows(UncheckedIOException.class, () -> {
+			sink.write(orderId, "two");
+			sink.close();
+		});
+		sink.close();
+		assertThrows(IllegalStateException.class, () -> sink.write(orderId, "three"));
+		assertEquals(List.of("one", "two"), sink.history(orderId));
+		assertTrue(Files.exists(directory.resolve("orders-0000000001.log")));
+	}
+
+	@Test
+	public void testOrderLogWritesToSink() {
+		try (var sink = new RollingFileOrderLogSink(directory, 1024, Duration.ofHours(1))) {
+			var log = new OrderLog(sink);
+			var service = new PancakeService(log);
+			var order = service.createOrder(10, 20);
+			service.addMilkChocolatePancake(order.getId(), 2);
+			service.cancelOrder(order.getId());
+
+			var history = log.history(order.getId());
+			assertEquals(3, history.size());
+			assertTrue(history.get(2).startsWith("Cancelled order " + order.getId()));
+			assertFalse(history.get(0).contains("\n"));
+		}
+	}
+
+	private long count(String suffix) throws IOException {
+		try (var files = Files.list(directory)) {
+			return files.filter(file -> file.getFileName().toString().endsWith(suffix)).count();
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+package org.pancakelab.service.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pancakelab.service.OrderLog;
+import org.pancakelab.service.PancakeService;
+
+public class OrderLifecycleTrackerTest {
+
+	private AtomicLong clock;
+	private OrderLifecycleTracker tracker;
+	private PancakeService service;
+
+	@BeforeEach
+	public void beforeTest() {
+		clock = new AtomicLong();
+		tracker = new OrderLifecycleTracker(Duration.ofNanos(500), clock::get);
+		service = new PancakeService(new OrderLog());
+		service.addListener(tracker);
+	}
+
+	@Test
+	public void testRecordsEveryStageByBuilding() {
+		var order = service.createOrder(10, 1);
+		clock.addAndGet(100);
+		service.addDarkChocolatePancake(order.getId(), 2);
+		clock.addAndGet(10);
+		service.addMilkChocolatePancake(order.getId(), 1);
+		clock.addAndGet(200);
+		service.completeOrder(order.getId());
+		clock.addAndGet(300);
+		service.prepareOrder(order.getId());
+		clock.addAndGet(400);
+		service.deliverOrder(order.getId());
+
+		assertEquals(1, tracker.histogram(10, LifecycleStage.FIRST_PANCAKE).count());
+		assertEquals(100, tracker.histogram(10, LifecycleStage.FIRST_PANCAKE).max());
+		assertEquals(210, tracker.histogram(10, LifecycleStage.COMPLETED).max());
+		assertEquals(300, tracker.histogram(10, LifecycleStage.PREPARED).max());
+		assertEquals(400, tracker.histogram(10, LifecycleStage.DELIVERED).max());
+		assertEquals(1010, tracker.histogram(10, LifecycleStage.END_TO_END).max());
+		assertEquals(0, tracker.histogram(11, LifecycleStage.END_TO_END).count());
+		assertEquals(1, tracker.slaBreaches());
+		assertEquals(0, tracker.inFlightCount());
+	}
+
+	@Test
+	public void testRecordsEachStageOnce() {
+		var order = service.createOrder(10, 1);
+		clock.addAndGet(100);
+		tracker.orderCompleted(order.getId());
+		clock.addAndGet(100);
+		tracker.orderCompleted(order.getId());
+
+		assertEquals(1, tracker.histogram(10, LifecycleStage.COMPLETED).count());
+		assertEquals(100, tracker.histogram(10, LifecycleStage.COMPLETED).max());
+	}
+
+	@Test
+	public void testCancelIsNotEndToEnd() {
+		var order = service.createOrder(10, 1);
+		clock.addAndGet(50);
+		service.cancelOrder(order.getId());
+
+		assertEquals(50, tracker.histogram(LifecycleStage.CANCELLED).max());
+		assertEquals(0, tracker.histogram(LifecycleStage.END_TO_END).count());
+		assertEquals(0, tracker.slaBreaches());
+	}
+
+	@Test
+	public void testSlowestInFlightAreTheOldest() {
+		var first = service.createOrder(10, 1);
+		clock.addAndGet(100);
+		var second = service.createOrder(11, 1);
+		clock.addAndGet(100);
+		var third = service.createOrder(12, 1);
+		clock.addAndGet(100);
+		service.cancelOrder(first.getId());
+
+		var slowest = tracker.slowestInFlight(5);
+		assertEquals(List.of(second.getId(), third.getId()), slowest.stream().map(InFlightOrder::orderId).toList());
+		assertEquals(200, slowest.get(0).ageNanos());
+		assertEquals(1, tracker.slowestInFlight(1).size());
+	}
+
+	@Test
+	public void testHistogramQuantiles() {
+		var histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1_000L);
+		}
+		assertEquals(1000, histogram.count());
+		assertEquals(1_000_000, histogram.max());
+		var median = histogram.quantile(0.5);
+		assertTrue(median >= 500_000 && median <= 500_000 * 1.125, Long.toString(median));
+		var p99 = histogram.quantile(0.99);
+		assertTrue(p99 >= 990_000 && p99 <= 1_000_000, Long.toString(p99));
+		assertEquals(500_500, histogram.mean(), 0.001);
+	}
+
+}
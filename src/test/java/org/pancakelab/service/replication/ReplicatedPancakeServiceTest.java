@@ -0,0 +1,271 @@
+package org.pancakelab.service.replication;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.pancakelab.model.Order;
+import org.pancakelab.model.pancakes.PancakeIngredient;
+import org.pancakelab.model.pancakes.PancakeRecipe;
+import org.pancakelab.service.OrderLog;
+import org.pancakelab.service.PancakeServiceListener;
+import org.pancakelab.service.index.IngredientIndex;
+
+public class ReplicatedPancakeServiceTest {
+
+	private static final long TIMEOUT = 5_000;
+
+	private ReplicatedPancakeService leader;
+	private ReplicatedPancakeService follower1;
+	private ReplicatedPancakeService follower2;
+
+	@BeforeEach
+	public void beforeTest() {
+		leader = new ReplicatedPancakeService(new OrderLog(), 16);
+		follower1 = new ReplicatedPancakeService(new OrderLog(), 16);
+		follower2 = new ReplicatedPancakeService(new OrderLog(), 16);
+	}
+
+	@AfterEach
+	public void afterTest() {
+		leader.close();
+		follower1.close();
+		follower2.close();
+	}
+
+	@Test
+	public void testFollowersApplyLeaderChanges() throws InterruptedException {
+		follower1.follow(leader, 1024, Long.MAX_VALUE);
+		follower2.follow(leader, 1024, Long.MAX_VALUE);
+
+		var order = leader.createOrder(10, 20);
+		leader.addDarkChocolatePancake(order.getId(), 2);
+		leader.createCustom(order.getId());
+		leader.addIngredient(order.getId(), PancakeIngredient.MILK_CHOCOLATE);
+		leader.addIngredient(order.getId(), PancakeIngredient.HAZLNUTS);
+		leader.finishCustom(order.getId());
+		leader.removePancakes("Delicious pancake with dark chocolate!", order.getId(), 1);
+		leader.completeOrder(order.getId());
+
+		assertTrue(follower1.awaitSequence(leader.lastSequence(), TIMEOUT));
+		assertTrue(follower2.awaitSequence(leader.lastSequence(), TIMEOUT));
+		assertEquals(leader.viewOrder(order.getId()), follower1.viewOrder(order.getId()));
+		assertEquals(leader.viewOrder(order.getId()), follower2.viewOrder(order.getId()));
+		assertEquals(Set.of(order.getId()), follower1.listCompletedOrders());
+
+		leader.prepareOrder(order.getId());
+		assertNotNull(leader.deliverOrder(order.getId()));
+
+		assertTrue(follower1.awaitSequence(leader.lastSequence(), TIMEOUT));
+		assertEquals(List.of(), follower1.viewOrder(order.getId()));
+		assertEquals(Set.of(), follower1.listPreparedOrders());
+	}
+
+	@Test
+	public void testFollowerIsReadOnly() throws InterruptedException {
+		follower1.follow(leader, 1024, Long.MAX_VALUE);
+		var order = leader.createOrder(10, 20);
+		assertTrue(follower1.awaitSequence(leader.lastSequence(), TIMEOUT));
+
+		assertThrows(IllegalStateException.class, () -> follower1.createOrder(10, 20));
+		assertThrows(IllegalStateException.class, () -> follower1.addMilkChocolatePancake(order.getId(), 1));
+		assertThrows(IllegalStateException.class, () -> follower1.cancelOrder(order.getId()));
+	}
+
+	@Test
+	public void testFollowerCatchesUpFromSnapshot() throws InterruptedException {
+		var order = leader.createOrder(10, 20);
+		for (int i = 0; i < 100; i++) {
+			leader.addMilkChocolatePancake(order.getId(), 1);
+		}
+		var cancelled = leader.createOrder(11, 21);
+		leader.cancelOrder(cancelled.getId());
+
+		follower1.follow(leader, 4, Long.MAX_VALUE);
+		for (int i = 0; i < 100; i++) {
+			leader.addDarkChocolatePancake(order.getId(), 1);
+		}
+
+		assertTrue(follower1.awaitSequence(leader.lastSequence(), TIMEOUT));
+		assertEquals(200, follower1.viewOrder(order.getId()).size());
+		assertEquals(leader.viewOrder(order.getId()), follower1.viewOrder(order.getId()));
+		assertEquals(List.of(), follower1.viewOrder(cancelled.getId()));
+	}
+
+	@Test
+	public void testFollowerRejectsStaleReads() {
+		leader.close();
+		follower1.follow(leader, 1024, 0);
+		assertThrows(IllegalStateException.class, () -> follower1.viewOrder(null));
+	}
+
+	@Test
+	public void testPromoteFollowerOnLeaderFailure() throws InterruptedException {
+		follower1.follow(leader, 1024, Long.MAX_VALUE);
+		follower2.follow(leader, 1024, Long.MAX_VALUE);
+		var order = leader.createOrder(10, 20);
+		leader.addMilkChocolatePancake(order.getId(), 3);
+		assertTrue(follower1.awaitSequence(leader.lastSequence(), TIMEOUT));
+
+		leader.close();
+		assertThrows(IllegalStateException.class, () -> leader.addMilkChocolatePancake(order.getId(), 1));
+
+		follower1.promote();
+		follower2.follow(follower1, 1024, Long.MAX_VALUE);
+		follower1.addDarkChocolatePancake(order.getId(), 1);
+
+		assertTrue(follower1.isLeader());
+		assertTrue(follower2.awaitSequence(follower1.lastSequence(), TIMEOUT));
+		assertEquals(4, follower2.viewOrder(order.getId()).size());
+		assertEquals(follower1.viewOrder(order.getId()), follower2.viewOrder(order.getId()));
+	}
+
+	@Test
+	public void testFollowerBehindMaxLagRejectsReads() throws InterruptedException {
+		var order = leader.createOrder(10, 20);
+		follower1.follow(leader, 1024, 3);
+		assertTrue(follower1.awaitSequence(leader.lastSequence(), TIMEOUT));
+		assertEquals(List.of(), follower1.viewOrder(order.getId()));
+
+		var applying = new CountDownLatch(1);
+		var release = new CountDownLatch(1);
+		follower1.addListener(new PancakeServiceListener() {
+			@Override
+			public void pancakesAdded(Order order, List<PancakeRecipe> added) {
+				applying.countDown();
+				await(release);
+			}
+		});
+		for (int i = 0; i < 10; i++) {
+			leader.addMilkChocolatePancake(order.getId(), 1);
+		}
+		assertTrue(applying.await(TIMEOUT, TimeUnit.MILLISECONDS));
+		assertTrue(follower1.lag() > 3);
+		assertThrows(IllegalStateException.class, () -> follower1.viewOrder(order.getId()));
+
+		release.countDown();
+		assertTrue(follower1.awaitSequence(leader.lastSequence(), TIMEOUT));
+		assertEquals(10, follower1.viewOrder(order.getId()).size());
+	}
+
+	@Test
+	public void testFollowerResyncsAfterFailedApply() throws InterruptedException {
+		var index = new IngredientIndex();
+		var fail = new AtomicBoolean(true);
+		follower1.addListener(index);
+		follower1.addListener(new PancakeServiceListener() {
+			@Override
+			public void pancakesAdded(Order order, List<PancakeRecipe> added) {
+				if (added.size() == 2 && fail.getAndSet(false)) {
+					throw new IllegalStateException("listener failure");
+				}
+			}
+		});
+		follower1.follow(leader, 1024, Long.MAX_VALUE);
+		var order = leader.createOrder(10, 20);
+		leader.addMilkChocolateHazelnutsPancake(order.getId(), 1);
+		leader.addDarkChocolatePancake(order.getId(), 2);
+		leader.addMilkChocolatePancake(order.getId(), 1);
+
+		assertTrue(follower1.awaitSequence(leader.lastSequence(), TIMEOUT));
+		assertFalse(fail.get());
+		assertFalse(follower1.isFailed());
+		assertEquals(leader.viewOrder(order.getId()), follower1.viewOrder(order.getId()));
+		assertEquals(1, index.count(PancakeIngredient.HAZLNUTS, order.getId()));
+		assertEquals(2, index.count(PancakeIngredient.MILK_CHOCOLATE, order.getId()));
+	}
+
+	@Test
+	public void testLeaderPublishesChangesWhenListenerThrows() throws InterruptedException {
+		leader.addListener(new PancakeServiceListener() {
+			@Override
+			public void orderCreated(Order order) {
+				throw new IllegalStateException("listener failure");
+			}
+
+			@Override
+			public void pancakesAdded(Order order, List<PancakeRecipe> added) {
+				throw new IllegalStateException("listener failure");
+			}
+
+			@Override
+			public void orderCancelled(Order order, List<PancakeRecipe> pancakes) {
+				throw new IllegalStateException("listener failure");
+			}
+		});
+		follower1.follow(leader, 1024, Long.MAX_VALUE);
+
+		assertThrows(IllegalStateException.class, () -> leader.createOrder(10, 20));
+		var orderId = leader.snapshot().events().get(0).orderId();
+		assertThrows(IllegalStateException.class, () -> leader.addMilkChocolatePancake(orderId, 2));
+		leader.completeOrder(orderId);
+		assertThrows(IllegalStateException.class, () -> leader.addDarkChocolatePancake(UUID.randomUUID(), 1));
+
+		assertTrue(follower1.awaitSequence(leader.lastSequence(), TIMEOUT));
+		assertEquals(3, leader.lastSequence());
+		assertEquals(leader.viewOrder(orderId), follower1.viewOrder(orderId));
+		assertEquals(Set.of(orderId), follower1.listCompletedOrders());
+
+		assertThrows(IllegalStateException.class, () -> leader.cancelOrder(orderId));
+		assertTrue(follower1.awaitSequence(leader.lastSequence(), TIMEOUT));
+		assertEquals(List.of(), follower1.viewOrder(orderId));
+		assertEquals(0, follower1.report().orders());
+	}
+
+	@Test
+	public void testSnapshotSkipsUnknownOrders() {
+		leader.completeOrder(UUID.randomUUID());
+		var order = leader.createOrder(10, 20);
+		leader.completeOrder(order.getId());
+		var events = leader.snapshot().events();
+		assertEquals(2, events.size());
+		assertTrue(events.stream().allMatch(event -> event.orderId().equals(order.getId())));
+	}
+
+	@Test
+	public void testConcurrentWritersReplicateInOrder() throws InterruptedException {
+		follower1.follow(leader, 64, Long.MAX_VALUE);
+		var threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < 100; i++) {
+					var orderId = leader.createOrder(1, i).getId();
+					leader.addDarkChocolatePancake(orderId, 1);
+					leader.addMilkChocolatePancake(orderId, 1);
+					if (i % 2 == 0) {
+						leader.cancelOrder(orderId);
+					}
+				}
+			}));
+		}
+		threads.forEach(Thread::start);
+		for (var thread : threads) {
+			thread.join();
+		}
+		assertTrue(follower1.awaitSequence(leader.lastSequence(), TIMEOUT));
+		assertEquals(leader.report().orders(), follower1.report().orders());
+		assertEquals(leader.report().pancakesByRecipe(), follower1.report().pancakesByRecipe());
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
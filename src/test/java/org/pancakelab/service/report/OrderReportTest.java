@@ -0,0 +1,98 @@
+package org.pancakelab.service.report;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.pancakelab.model.pancakes.PancakeIngredient;
+import org.pancakelab.service.OrderLog;
+import org.pancakelab.service.PancakeService;
+
+public class OrderReportTest {
+
+	@Test
+	public void testReportsOpenOrders() {
+		var service = new PancakeService(new OrderLog());
+		var open = service.createOrder(1, 1).getId();
+		service.addDarkChocolatePancake(open, 2);
+		service.createCustom(open);
+		service.addIngredient(open, PancakeIngredient.MUSTARD);
+		service.finishCustom(open);
+		var completed = service.createOrder(1, 2).getId();
+		service.addMilkChocolatePancake(completed, 1);
+		service.completeOrder(completed);
+		var prepared = service.createOrder(2, 1).getId();
+		service.addDarkChocolatePancake(prepared, 1);
+		service.completeOrder(prepared);
+		service.prepareOrder(prepared);
+		var delivered = service.createOrder(2, 2).getId();
+		service.addDarkChocolatePancake(delivered, 5);
+		service.prepareOrder(delivered);
+		service.deliverOrder(delivered);
+
+		var report = service.report();
+		assertEquals(3, report.orders());
+		assertEquals(Map.of("Delicious pancake with dark chocolate!", 3L, "Delicious pancake with milk chocolate!", 1L, "Delicious pancake with mustard!", 1L),
+				report.pancakesByRecipe());
+		assertEquals(Map.of(OrderStatus.OPEN, 1L, OrderStatus.COMPLETED, 1L, OrderStatus.PREPARED, 0L), report.ordersByBuilding().get(1));
+		assertEquals(Map.of(OrderStatus.OPEN, 0L, OrderStatus.COMPLETED, 0L, OrderStatus.PREPARED, 1L), report.ordersByBuilding().get(2));
+		assertEquals(Map.of(OrderStatus.OPEN, 1L, OrderStatus.COMPLETED, 1L, OrderStatus.PREPARED, 1L), report.ordersByStatus());
+		assertEquals(1, report.customPancakes());
+		assertEquals(1, report.customInOrders());
+	}
+
+	@Test
+	public void testParallelReportMatchesOrders() {
+		var service = new PancakeService(new OrderLog());
+		for (int i = 0; i < 20_000; i++) {
+			var orderId = service.createOrder(i % 10, i).getId();
+			service.addMilkChocolatePancake(orderId, 1 + i % 2);
+			if (i % 4 == 0) {
+				service.prepareOrder(orderId);
+			}
+		}
+		var pool = new ForkJoinPool(4);
+		try {
+			var report = service.report(pool);
+			assertEquals(20_000, report.orders());
+			assertEquals(30_000L, report.pancakesByRecipe().get("Delicious pancake with milk chocolate!"));
+			assertEquals(10, report.ordersByBuilding().size());
+			assertEquals(5_000L, report.ordersByStatus().get(OrderStatus.PREPARED));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testReportDoesNotBlockWriters() throws InterruptedException {
+		var service = new PancakeService(new OrderLog());
+		for (int i = 0; i < 5_000; i++) {
+			service.addDarkChocolatePancake(service.createOrder(1, i).getId(), 1);
+		}
+		var running = new AtomicBoolean(true);
+		var writer = new Thread(() -> {
+			while (running.get()) {
+				var orderId = service.createOrder(2, 1).getId();
+				service.addDarkChocolatePancake(orderId, 1);
+				service.cancelOrder(orderId);
+			}
+		});
+		writer.start();
+		try {
+			for (int i = 0; i < 20; i++) {
+				var report = service.report();
+				var pancakes = report.pancakesByRecipe().get("Delicious pancake with dark chocolate!");
+				assertTrue(pancakes >= 5_000 && pancakes <= 5_001);
+				assertEquals(5_000L, report.ordersByBuilding().get(1).get(OrderStatus.OPEN));
+			}
+		} finally {
+			running.set(false);
+			writer.join();
+		}
+	}
+
+}
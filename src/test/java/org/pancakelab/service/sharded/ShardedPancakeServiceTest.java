@@ -0,0 +1,188 @@
+package org.pancakelab.service.sharded;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.pancakelab.model.Order;
+import org.pancakelab.model.pancakes.PancakeIngredient;
+import org.pancakelab.model.pancakes.PancakeRecipe;
+import org.pancakelab.service.OrderLog;
+import org.pancakelab.service.PancakeServiceListener;
+import org.pancakelab.service.index.IngredientIndex;
+import org.pancakelab.service.jfr.PancakeOperationEvent;
+import org.pancakelab.service.jfr.RecordingAnalyzer;
+import org.pancakelab.service.report.OrderStatus;
+
+import jdk.jfr.Recording;
+
+public class ShardedPancakeServiceTest {
+
+	private static final String DARK_CHOCOLATE_PANCAKE_DESCRIPTION = "Delicious pancake with dark chocolate!";
+
+	@TempDir
+	public Path directory;
+
+	@Test
+	public void testOrderLifecycle() {
+		try (var service = new ShardedPancakeService(4, OrderLog::new)) {
+			var orderId = service.createOrder(10, 20).getId();
+			service.addDarkChocolatePancake(orderId, 3);
+			service.createCustom(orderId);
+			service.addIngredient(orderId, PancakeIngredient.MUSTARD);
+			assertThrows(IllegalStateException.class, () -> service.prepareOrder(orderId));
+			service.finishCustom(orderId);
+			service.removePancakes(DARK_CHOCOLATE_PANCAKE_DESCRIPTION, orderId, 1);
+			assertEquals(List.of(DARK_CHOCOLATE_PANCAKE_DESCRIPTION, DARK_CHOCOLATE_PANCAKE_DESCRIPTION, "Delicious pancake with mustard!"),
+					service.viewOrder(orderId));
+
+			service.completeOrder(orderId);
+			assertEquals(Set.of(orderId), service.listCompletedOrders());
+			assertNull(service.deliverOrder(orderId));
+			service.prepareOrder(orderId);
+			assertEquals(Set.of(), service.listCompletedOrders());
+			assertEquals(Set.of(orderId), service.listPreparedOrders());
+
+			var delivered = service.deliverOrder(orderId);
+			assertEquals(orderId, delivered.order().getId());
+			assertEquals(3, delivered.pancakesToDeliver().size());
+			assertEquals(List.of(), service.viewOrder(orderId));
+			assertEquals(Set.of(), service.listPreparedOrders());
+			assertEquals(6, service.log(orderId).history(orderId).size());
+			assertThrows(IllegalStateException.class, () -> service.addMilkChocolatePancake(orderId, 1));
+		}
+	}
+
+	@Test
+	public void testCrossSliceQueriesAndListeners() {
+		try (var service = new ShardedPancakeService(4, OrderLog::new)) {
+			var index = new IngredientIndex();
+			service.addListener(index);
+			var hazelnuts = new ArrayList<UUID>();
+			for (int i = 0; i < 100; i++) {
+				var orderId = service.createOrder(i % 3, i).getId();
+				if (i % 2 == 0) {
+					service.addMilkChocolateHazelnutsPancake(orderId, 1);
+					hazelnuts.add(orderId);
+				} else {
+					service.addDarkChocolatePancake(orderId, 2);
+					service.prepareOrder(orderId);
+				}
+			}
+			assertEquals(Set.copyOf(hazelnuts), index.ordersWith(PancakeIngredient.HAZLNUTS));
+			assertEquals(50, service.listPreparedOrders().size());
+			var report = service.report();
+			assertEquals(100, report.orders());
+			assertEquals(100L, report.pancakesByRecipe().get(DARK_CHOCOLATE_PANCAKE_DESCRIPTION));
+			assertEquals(50L, report.ordersByStatus().get(OrderStatus.PREPARED));
+			assertEquals(3, report.ordersByBuilding().size());
+		}
+	}
+
+	@Test
+	public void testConcurrentCallers() throws InterruptedException {
+		try (var service = new ShardedPancakeService(3, OrderLog::new)) {
+			var open = ConcurrentHashMap.<UUID>newKeySet();
+			var threads = new ArrayList<Thread>();
+			for (int t = 0; t < 6; t++) {
+				threads.add(new Thread(() -> {
+					for (int i = 0; i < 300; i++) {
+						var orderId = service.createOrder(1, i).getId();
+						service.addDarkChocolatePancake(orderId, 2);
+						service.removePancakes(DARK_CHOCOLATE_PANCAKE_DESCRIPTION, orderId, 1);
+						if (i % 3 == 0) {
+							service.cancelOrder(orderId);
+						} else {
+							open.add(orderId);
+						}
+					}
+				}));
+			}
+			threads.forEach(Thread::start);
+			for (var thread : threads) {
+				thread.join();
+			}
+			var report = service.report();
+			assertEquals(open.size(), report.orders());
+			assertEquals((long) open.size(), report.pancakesByRecipe().get(DARK_CHOCOLATE_PANCAKE_DESCRIPTION));
+			for (var orderId : open) {
+				assertEquals(List.of(DARK_CHOCOLATE_PANCAKE_DESCRIPTION), service.viewOrder(orderId));
+			}
+		}
+	}
+
+	@Test
+	public void testListenersCannotCallOtherSlices() {
+		try (var service = new ShardedPancakeService(2, OrderLog::new)) {
+			var first = service.createOrder(1, 1).getId();
+			var same = first;
+			var other = first;
+			while (same == first || other == first) {
+				var orderId = service.createOrder(1, 1).getId();
+				if (service.log(orderId) == service.log(first)) {
+					same = orderId;
+				} else {
+					other = orderId;
+				}
+			}
+			var sameSlice = same;
+			var otherSlice = other;
+			var seen = new ArrayList<List<String>>();
+			service.addListener(new PancakeServiceListener() {
+				@Override
+				public void pancakesAdded(Order order, List<PancakeRecipe> added) {
+					if (order.getId().equals(first)) {
+						seen.add(service.viewOrder(sameSlice));
+						service.viewOrder(otherSlice);
+					}
+				}
+			});
+
+			assertThrows(IllegalStateException.class, () -> service.addDarkChocolatePancake(first, 1));
+			assertEquals(List.of(List.of()), seen);
+		}
+	}
+
+	@Test
+	public void testEmitsOperationEvents() throws IOException {
+		var file = directory.resolve("sharded.jfr");
+		try (var recording = new Recording(); var service = new ShardedPancakeService(2, OrderLog::new)) {
+			recording.enable(PancakeOperationEvent.class).withoutThreshold();
+			recording.start();
+			var orderId = service.createOrder(1, 1).getId();
+			service.addDarkChocolatePancake(orderId, 2);
+			service.addDarkChocolatePancake(orderId, 1);
+			service.listCompletedOrders();
+			assertThrows(IllegalStateException.class, () -> service.addMilkChocolatePancake(UUID.randomUUID(), 1));
+			recording.stop();
+			recording.dump(file);
+		}
+
+		var summaries = RecordingAnalyzer.analyze(file);
+		var add = summaries.stream().filter(summary -> summary.operation().equals("addDarkChocolatePancake")).findFirst().orElseThrow();
+		assertEquals(2, add.count());
+		assertEquals(0, add.failures());
+		var failed = summaries.stream().filter(summary -> summary.operation().equals("addMilkChocolatePancake")).findFirst().orElseThrow();
+		assertEquals(1, failed.failures());
+		assertEquals(1, summaries.stream().filter(summary -> summary.operation().equals("listCompletedOrders")).count());
+	}
+
+	@Test
+	public void testClosedServiceRejectsCalls() {
+		var service = new ShardedPancakeService(2, OrderLog::new);
+		var orderId = service.createOrder(1, 1).getId();
+		service.close();
+		assertThrows(IllegalStateException.class, () -> service.viewOrder(orderId));
+	}
+
+}